@@ -155,7 +155,7 @@ public class SmartScriptEngine {
 				node.getChild(i).accept(this);
 			}
 			try {
-				requestContext.write("\n".getBytes());
+				requestContext.write("\n");
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
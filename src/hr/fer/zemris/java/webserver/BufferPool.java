@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct {@link ByteBuffer}s shared by all connections of the server. Buffers are grouped in size
+ * classes, which are powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}, and a leased buffer has the
+ * capacity of the smallest class which fits the requested size. Released buffers are kept for the next lease,
+ * up to the given number of buffers per class. Larger buffers are not pooled.
+ * <p>
+ * In debug mode the pool remembers where every buffer was leased. A buffer which is garbage collected
+ * before it is released is reported as a leak, and releasing a buffer which is not leased throws an exception.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class BufferPool {
+
+	/**
+	 * Capacity of the smallest size class, in bytes.
+	 */
+	public static final int MIN_SIZE = 1024;
+	/**
+	 * Capacity of the largest size class, in bytes.
+	 */
+	public static final int MAX_SIZE = 65536;
+
+	/**
+	 * Released buffers, one queue per size class.
+	 */
+	private Queue<ByteBuffer>[] classes;
+	/**
+	 * Number of buffers in each queue of {@link #classes}.
+	 */
+	private AtomicInteger[] pooled;
+	/**
+	 * Maximum number of released buffers kept per size class.
+	 */
+	private int maxPooled;
+	/**
+	 * Number of buffers allocated by this pool.
+	 */
+	private AtomicLong allocated = new AtomicLong();
+	/**
+	 * Says whether leases are tracked.
+	 */
+	private boolean debug;
+	/**
+	 * Leased buffers by their identity hash code, tracked in debug mode.
+	 */
+	private Map<Integer, List<Lease>> leases = new HashMap<>();
+	/**
+	 * Queue of leases whose buffers were garbage collected.
+	 */
+	private ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+	/**
+	 * Number of buffers which were garbage collected without being released.
+	 */
+	private AtomicLong leaks = new AtomicLong();
+
+	/**
+	 * Represents one lease of a buffer, tracked in debug mode.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class Lease extends WeakReference<ByteBuffer> {
+		/**
+		 * Identity hash code of the buffer.
+		 */
+		int identity;
+		/**
+		 * Stack trace of the code which leased the buffer.
+		 */
+		Throwable trace;
+
+		/**
+		 * Creates a new {@link Lease}.
+		 * @param buffer Leased buffer.
+		 * @param queue Queue to which the lease is added once the buffer is garbage collected.
+		 */
+		public Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			this.identity = System.identityHashCode(buffer);
+			this.trace = new Throwable("Buffer of " + buffer.capacity() + " bytes was leased here");
+		}
+	}
+
+	/**
+	 * Creates a new {@link BufferPool}.
+	 * @param maxPooled Maximum number of released buffers kept per size class.
+	 * @param debug Says whether leases are tracked to detect leaks.
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int maxPooled, boolean debug) {
+		this.maxPooled = maxPooled;
+		this.debug = debug;
+		int count = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+		classes = (Queue<ByteBuffer>[]) new Queue<?>[count];
+		pooled = new AtomicInteger[count];
+		for(int i = 0; i < count; i++){
+			classes[i] = new ConcurrentLinkedQueue<>();
+			pooled[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Leases a cleared buffer which can hold at least the given number of bytes.
+	 * @param size Number of bytes the buffer has to hold.
+	 * @return Leased buffer, which has to be given back with {@link #release(ByteBuffer)}.
+	 */
+	public ByteBuffer acquire(int size) {
+		int index = classIndex(size);
+		ByteBuffer buffer = null;
+		if(index != -1){
+			buffer = classes[index].poll();
+			if(buffer != null){
+				pooled[index].decrementAndGet();
+				buffer.clear();
+			}
+		}
+		if(buffer == null){
+			allocated.incrementAndGet();
+			buffer = ByteBuffer.allocateDirect(index == -1 ? size : MIN_SIZE << index);
+		}
+		if(debug){
+			track(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gives a leased buffer back to the pool. The buffer must not be used after it is released.
+	 * @param buffer Buffer to release.
+	 */
+	public void release(ByteBuffer buffer) {
+		if(debug){
+			untrack(buffer);
+		}
+		int index = classIndex(buffer.capacity());
+		if(index == -1 || !buffer.isDirect() || buffer.capacity() != MIN_SIZE << index) return;
+		if(pooled[index].incrementAndGet() > maxPooled){
+			pooled[index].decrementAndGet();
+			return;
+		}
+		classes[index].add(buffer);
+	}
+
+	/**
+	 * Fetches the number of buffers allocated by this pool.
+	 * @return Number of allocated buffers.
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * Fetches the number of buffers which were garbage collected without being released. Leaks are
+	 * detected only in debug mode.
+	 * @return Number of leaked buffers.
+	 */
+	public long getLeaks() {
+		reportLeaks();
+		return leaks.get();
+	}
+
+	/**
+	 * Finds the size class of the given size.
+	 * @param size Number of bytes.
+	 * @return Index of the smallest size class which fits given size, or -1 if it is too large.
+	 */
+	private static int classIndex(int size) {
+		if(size > MAX_SIZE) return -1;
+		if(size <= MIN_SIZE) return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	/**
+	 * Remembers a lease of the given buffer.
+	 * @param buffer Leased buffer.
+	 */
+	private void track(ByteBuffer buffer) {
+		reportLeaks();
+		Lease lease = new Lease(buffer, collected);
+		synchronized(leases){
+			leases.computeIfAbsent(lease.identity, k -> new ArrayList<>(1)).add(lease);
+		}
+	}
+
+	/**
+	 * Forgets the lease of the given buffer.
+	 * @param buffer Released buffer.
+	 * @throws IllegalStateException If the buffer is not leased.
+	 */
+	private void untrack(ByteBuffer buffer) {
+		int identity = System.identityHashCode(buffer);
+		synchronized(leases){
+			List<Lease> list = leases.get(identity);
+			if(list != null){
+				for(int i = 0; i < list.size(); i++){
+					if(list.get(i).get() != buffer) continue;
+					list.remove(i).clear();
+					if(list.isEmpty()){
+						leases.remove(identity);
+					}
+					return;
+				}
+			}
+		}
+		throw new IllegalStateException("Buffer was not leased from this pool or was already released!");
+	}
+
+	/**
+	 * Reports leases whose buffers were garbage collected without being released.
+	 */
+	private void reportLeaks() {
+		Lease lease;
+		while((lease = (Lease) collected.poll()) != null){
+			synchronized(leases){
+				List<Lease> list = leases.get(lease.identity);
+				if(list == null || !list.remove(lease)) continue;
+				if(list.isEmpty()){
+					leases.remove(lease.identity);
+				}
+			}
+			leaks.incrementAndGet();
+			System.err.println("Buffer leak: buffer was garbage collected without being released.");
+			lease.trace.printStackTrace();
+		}
+	}
+}
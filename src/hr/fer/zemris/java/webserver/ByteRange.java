@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents one range of bytes requested by the <code>Range</code> header.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class ByteRange {
+
+	/**
+	 * Maximum number of ranges accepted in one request.
+	 */
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 * Position of the first byte of the range.
+	 */
+	private long start;
+	/**
+	 * Position of the last byte of the range, inclusive.
+	 */
+	private long end;
+
+	/**
+	 * Creates a new {@link ByteRange}.
+	 * @param start Position of the first byte of the range.
+	 * @param end Position of the last byte of the range, inclusive.
+	 */
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Fetches the position of the first byte of the range.
+	 * @return Position of the first byte of the range.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Fetches the position of the last byte of the range.
+	 * @return Position of the last byte of the range, inclusive.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Fetches the number of bytes in the range.
+	 * @return Number of bytes in the range.
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Formats the value of the <code>Content-Range</code> header for this range.
+	 * @param size Size of the whole file.
+	 * @return Value of the <code>Content-Range</code> header.
+	 */
+	public String toContentRange(long size) {
+		return "bytes " + start + "-" + end + "/" + size;
+	}
+
+	/**
+	 * Parses the value of the <code>Range</code> header. Ranges which start after the end of the file
+	 * are left out and ranges which end after the end of the file are shortened.
+	 * @param header Value of the header.
+	 * @param size Size of the file.
+	 * @return Satisfiable ranges, which is an empty list if no range can be satisfied, or <code>null</code>
+	 * if the header is not a valid byte range header, in which case it is ignored.
+	 */
+	public static List<ByteRange> parse(String header, long size) {
+		if(!header.startsWith("bytes=")) return null;
+		String[] specs = header.substring(6).split(",");
+		if(specs.length > MAX_RANGES) return null;
+
+		List<ByteRange> ranges = new ArrayList<>();
+		for(String spec : specs){
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if(dash == -1) return null;
+			long start, end;
+			try {
+				if(dash == 0){
+					// suffix range: last n bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					if(suffix < 0) return null;
+					if(suffix == 0) continue;
+					start = Math.max(0, size - suffix);
+					end = size - 1;
+				}
+				else{
+					start = Long.parseLong(spec.substring(0, dash));
+					end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+					if(end < start) return null;
+					end = Math.min(end, size - 1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if(start < 0) return null;
+			if(start < size){
+				ranges.add(new ByteRange(start, end));
+			}
+		}
+		return ranges;
+	}
+
+	/**
+	 * Checks whether the <code>If-Range</code> header allows the <code>Range</code> header to be used. It does if
+	 * it is the entity tag of the current file, compared strongly, or exactly its modification date. Otherwise
+	 * the file changed since the client got its part, and the whole file has to be sent.
+	 * @param ifRange Value of the <code>If-Range</code> header, or <code>null</code>.
+	 * @param eTag Entity tag of the file, or <code>null</code> if it has none.
+	 * @param lastModified Value of the <code>Last-Modified</code> header of the file, or <code>null</code>.
+	 * @return <code>true</code> if the ranges may be sent.
+	 */
+	public static boolean ifRangeMatches(String ifRange, String eTag, String lastModified) {
+		if(ifRange == null) return true;
+		ifRange = ifRange.trim();
+		// weak tags never match, since a range of a weakly equal file is not the same bytes
+		if(ifRange.startsWith("\"")) return ifRange.equals(eTag);
+		return !ifRange.startsWith("W/") && ifRange.equals(lastModified);
+	}
+}
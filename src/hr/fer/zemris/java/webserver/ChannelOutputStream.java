@@ -0,0 +1,110 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered output stream which writes to a blocking channel through a direct buffer leased from a
+ * {@link BufferPool}. Writing a direct buffer saves the copy which a channel makes for heap arrays.
+ * The buffer is leased when the first byte is written and given back by {@link #release()}, so
+ * connections waiting for a request do not hold one.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class ChannelOutputStream extends OutputStream {
+
+	/**
+	 * Channel to which bytes are written.
+	 */
+	private WritableByteChannel channel;
+	/**
+	 * Pool from which the buffer is leased.
+	 */
+	private BufferPool pool;
+	/**
+	 * Size of the leased buffer, in bytes.
+	 */
+	private int bufferSize;
+	/**
+	 * Leased buffer, in write mode, or <code>null</code> if none is leased.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates a new {@link ChannelOutputStream}.
+	 * @param channel Blocking channel to which bytes are written.
+	 * @param pool Pool from which the buffer is leased.
+	 * @param bufferSize Size of the buffer, in bytes.
+	 */
+	public ChannelOutputStream(WritableByteChannel channel, BufferPool pool, int bufferSize) {
+		this.channel = channel;
+		this.pool = pool;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buffer().put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0){
+			ByteBuffer buffer = buffer();
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if(buffer == null || buffer.position() == 0) return;
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Flushes buffered bytes and gives the buffer back to the pool. The stream can still be used and
+	 * leases a new buffer when it is written to again.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public void release() throws IOException {
+		if(buffer == null) return;
+		try {
+			flush();
+		} finally {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Releases the buffer. The channel is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		release();
+	}
+
+	/**
+	 * Fetches the buffer with free space, flushing it if it is full.
+	 * @return Buffer in write mode.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private ByteBuffer buffer() throws IOException {
+		if(buffer == null){
+			buffer = pool.acquire(bufferSize);
+		}
+		else if(!buffer.hasRemaining()){
+			flush();
+		}
+		return buffer;
+	}
+}
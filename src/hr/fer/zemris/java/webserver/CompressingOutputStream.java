@@ -0,0 +1,133 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream which compresses written bytes in <code>gzip</code> or <code>deflate</code> content coding
+ * and writes them to the given stream. {@link Deflater}s are reused: every thread keeps one deflater of each
+ * format, which a stream borrows when it is created and gives back to the finishing thread in {@link #finish()}.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class CompressingOutputStream extends OutputStream {
+
+	/**
+	 * Header of a gzip member without optional fields.
+	 */
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+	/**
+	 * Deflaters without zlib wrapping, used for gzip.
+	 */
+	private static final ThreadLocal<Deflater> GZIP_DEFLATERS = new ThreadLocal<>();
+	/**
+	 * Deflaters with zlib wrapping, used for deflate.
+	 */
+	private static final ThreadLocal<Deflater> DEFLATE_DEFLATERS = new ThreadLocal<>();
+
+	/**
+	 * Stream to which compressed bytes are written.
+	 */
+	private OutputStream out;
+	/**
+	 * Says whether gzip or deflate coding is used.
+	 */
+	private boolean gzip;
+	/**
+	 * Deflater borrowed by this stream, or <code>null</code> once the stream is finished.
+	 */
+	private Deflater deflater;
+	/**
+	 * Checksum of uncompressed bytes, used for gzip.
+	 */
+	private CRC32 crc = new CRC32();
+	/**
+	 * Buffer for compressed bytes.
+	 */
+	private byte[] buffer = new byte[4096];
+
+	/**
+	 * Creates a new {@link CompressingOutputStream}.
+	 * @param out Stream to which compressed bytes are written.
+	 * @param coding Content coding, <code>gzip</code> or <code>deflate</code>.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public CompressingOutputStream(OutputStream out, String coding) throws IOException {
+		this.out = out;
+		this.gzip = coding.equals("gzip");
+
+		ThreadLocal<Deflater> pool = gzip ? GZIP_DEFLATERS : DEFLATE_DEFLATERS;
+		deflater = pool.get();
+		if(deflater == null){
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+		}
+		else{
+			pool.set(null);
+		}
+
+		if(gzip){
+			out.write(GZIP_HEADER);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(deflater == null) throw new IOException("Stream was already finished!");
+		if(len == 0) return;
+		crc.update(b, off, len);
+		deflater.setInput(b, off, len);
+		while(!deflater.needsInput()){
+			deflate();
+		}
+	}
+
+	/**
+	 * Writes the rest of the compressed data and gives the deflater back. The underlying stream is not closed.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public void finish() throws IOException {
+		if(deflater == null) return;
+		deflater.finish();
+		while(!deflater.finished()){
+			deflate();
+		}
+		if(gzip){
+			writeInt((int) crc.getValue());
+			writeInt((int) deflater.getBytesRead());
+		}
+
+		deflater.reset();
+		(gzip ? GZIP_DEFLATERS : DEFLATE_DEFLATERS).set(deflater);
+		deflater = null;
+	}
+
+	/**
+	 * Compresses available input and writes it to the underlying stream.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void deflate() throws IOException {
+		int length = deflater.deflate(buffer, 0, buffer.length);
+		if(length > 0){
+			out.write(buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Writes the given integer in little endian byte order, as required by the gzip trailer.
+	 * @param value Value to write.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void writeInt(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+}
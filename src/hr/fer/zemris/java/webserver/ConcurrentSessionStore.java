@@ -0,0 +1,405 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Implementation of {@link ISessionStore} which keeps sessions in a {@link ConcurrentHashMap}, so sessions
+ * are found without locking and created under the lock of a single bin. A session is refreshed by writing its
+ * expiry time only if it moves by at least one tick, so threads which use the same session do not keep
+ * invalidating each other's caches.
+ * <p>
+ * Sessions are also filed in a timing wheel, an array of buckets with one bucket per tick, which spans twice
+ * the timeout unless that would take more than {@link #MAX_WHEEL_SIZE} buckets. A session is filed in the
+ * bucket of the tick in which it expires and is not moved when it is refreshed. {@link #removeExpired()}
+ * visits only the buckets of ticks which passed since its last run: it removes the sessions which really
+ * expired and files the others again under their expiry time, so it never scans the whole store. The others
+ * are sessions which were refreshed and, with a capped wheel, sessions which expire in a later round of the
+ * wheel; they are visited again once per round until they are due. Expired sessions are also never returned,
+ * and are removed when they are found.
+ * <p>
+ * Listeners are told about changes of sessions, including changes of their persistent parameters, which
+ * are made through the maps returned by the store.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class ConcurrentSessionStore implements ISessionStore {
+
+	/**
+	 * Default duration of one tick, in milliseconds.
+	 */
+	private static final long DEFAULT_TICK = 1000;
+	/**
+	 * Largest number of buckets of the wheel, which spans 18 hours with the default tick.
+	 */
+	private static final int MAX_WHEEL_SIZE = 1 << 16;
+
+	/**
+	 * Represents one session.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class SessionMapEntry {
+		/**
+		 * Session ID.
+		 */
+		final String sid;
+		/**
+		 * Time until which the session is valid, in milliseconds since the epoch.
+		 */
+		volatile long validUntil;
+		/**
+		 * Persistent parameters of the session.
+		 */
+		final Map<String, String> values = new ConcurrentHashMap<>();
+		/**
+		 * View of {@link #values} which reports changes to listeners.
+		 */
+		final Map<String, String> map = new SessionParameters(this);
+
+		/**
+		 * Creates a new {@link SessionMapEntry}.
+		 * @param sid Session ID.
+		 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+		 */
+		SessionMapEntry(String sid, long validUntil) {
+			this.sid = sid;
+			this.validUntil = validUntil;
+		}
+	}
+
+	/**
+	 * Map of persistent parameters of a session which reports changes to listeners of the store.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class SessionParameters extends AbstractMap<String, String> {
+		/**
+		 * Session of the parameters.
+		 */
+		private final SessionMapEntry session;
+		/**
+		 * Unmodifiable view of the parameters.
+		 */
+		private final Map<String, String> view;
+
+		/**
+		 * Creates new {@link SessionParameters}.
+		 * @param session Session of the parameters.
+		 */
+		SessionParameters(SessionMapEntry session) {
+			this.session = session;
+			this.view = Collections.unmodifiableMap(session.values);
+		}
+
+		@Override
+		public String get(Object key) {
+			return session.values.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return session.values.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return session.values.size();
+		}
+
+		@Override
+		public String put(String key, String value) {
+			// setting null removes the parameter, since a missing parameter reads as null
+			if(value == null) return remove(key);
+			String old = session.values.put(key, value);
+			for(ISessionListener listener : listeners){
+				listener.parameterSet(session.sid, key, value);
+			}
+			return old;
+		}
+
+		@Override
+		public String remove(Object key) {
+			String old = session.values.remove(key);
+			if(old != null){
+				for(ISessionListener listener : listeners){
+					listener.parameterRemoved(session.sid, (String) key);
+				}
+			}
+			return old;
+		}
+
+		@Override
+		public void clear() {
+			for(String key : session.values.keySet()){
+				remove(key);
+			}
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return view.keySet();
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return view.entrySet();
+		}
+	}
+
+	/**
+	 * Applies reported changes without reporting them again.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class Updater implements ISessionListener {
+
+		@Override
+		public void sessionCreated(String sid, long validUntil) {
+			if(validUntil < System.currentTimeMillis()) return;
+			SessionMapEntry session = new SessionMapEntry(sid, validUntil);
+			if(sessions.putIfAbsent(sid, session) == null){
+				file(session);
+			}
+			else{
+				sessionRefreshed(sid, validUntil);
+			}
+		}
+
+		@Override
+		public void sessionRefreshed(String sid, long validUntil) {
+			SessionMapEntry session = sessions.get(sid);
+			if(session != null && session.validUntil < validUntil){
+				session.validUntil = validUntil;
+			}
+		}
+
+		@Override
+		public void parameterSet(String sid, String name, String value) {
+			SessionMapEntry session = sessions.get(sid);
+			if(session != null){
+				session.values.put(name, value);
+			}
+		}
+
+		@Override
+		public void parameterRemoved(String sid, String name) {
+			SessionMapEntry session = sessions.get(sid);
+			if(session != null){
+				session.values.remove(name);
+			}
+		}
+
+		@Override
+		public void sessionRemoved(String sid) {
+			sessions.remove(sid);
+		}
+
+		@Override
+		public void sessionReplaced(String sid, long validUntil, Map<String, String> parameters) {
+			sessionCreated(sid, validUntil);
+			SessionMapEntry session = sessions.get(sid);
+			if(session == null) return;
+			// parameters are set before the others are removed, so a kept parameter is never missing
+			session.values.putAll(parameters);
+			session.values.keySet().retainAll(parameters.keySet());
+		}
+	}
+
+	/**
+	 * Sessions by their IDs.
+	 */
+	private final ConcurrentHashMap<String, SessionMapEntry> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Time for which an unused session stays valid, in milliseconds.
+	 */
+	private final long timeout;
+	/**
+	 * Duration of one tick, in milliseconds.
+	 */
+	private final long tick;
+	/**
+	 * Buckets of sessions by the tick in which they expire.
+	 */
+	private final Queue<SessionMapEntry>[] wheel;
+	/**
+	 * Mask which maps a tick to its bucket.
+	 */
+	private final int mask;
+	/**
+	 * First tick whose bucket was not visited yet.
+	 */
+	private long nextTick;
+	/**
+	 * Number of sessions visited by {@link #removeExpired()}.
+	 */
+	private volatile long visitedSessions;
+	/**
+	 * Listeners of changes of sessions.
+	 */
+	private volatile ISessionListener[] listeners = new ISessionListener[0];
+	/**
+	 * Updater of this store.
+	 */
+	private final ISessionListener updater = new Updater();
+
+	/**
+	 * Creates a new {@link ConcurrentSessionStore}.
+	 * @param timeout Time for which an unused session stays valid, in milliseconds.
+	 */
+	public ConcurrentSessionStore(long timeout) {
+		this(timeout, DEFAULT_TICK);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrentSessionStore}.
+	 * @param timeout Time for which an unused session stays valid, in milliseconds.
+	 * @param tick Duration of one tick, in milliseconds.
+	 */
+	@SuppressWarnings("unchecked")
+	ConcurrentSessionStore(long timeout, long tick) {
+		if(timeout <= 0) throw new IllegalArgumentException("Session timeout must be positive.");
+		if(tick <= 0) throw new IllegalArgumentException("Tick must be positive.");
+		this.timeout = timeout;
+		this.tick = tick;
+
+		// a session expires at most timeout / tick + 1 ticks after the current one, and the wheel
+		// holds twice that so that a late run does not visit buckets of the next round; a capped wheel
+		// wraps, and sessions of later rounds are filed again when their bucket is visited
+		int size = 1;
+		while(size < MAX_WHEEL_SIZE && size <= 2 * (timeout / tick + 1)){
+			size <<= 1;
+		}
+		wheel = (Queue<SessionMapEntry>[]) new Queue<?>[size];
+		for(int i = 0; i < size; i++){
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		}
+		mask = size - 1;
+		nextTick = System.currentTimeMillis() / tick;
+	}
+
+	@Override
+	public Map<String, String> touch(String sid) {
+		SessionMapEntry session = sessions.get(sid);
+		if(session == null) return null;
+		long now = System.currentTimeMillis();
+		long validUntil = session.validUntil;
+		if(validUntil < now){
+			if(sessions.remove(sid, session)){
+				for(ISessionListener listener : listeners){
+					listener.sessionRemoved(sid);
+				}
+			}
+			return null;
+		}
+		if(now + timeout - validUntil >= tick){
+			session.validUntil = now + timeout;
+			for(ISessionListener listener : listeners){
+				listener.sessionRefreshed(sid, now + timeout);
+			}
+		}
+		return session.map;
+	}
+
+	@Override
+	public Map<String, String> create(String sid) {
+		SessionMapEntry session = new SessionMapEntry(sid, System.currentTimeMillis() + timeout);
+		if(sessions.putIfAbsent(sid, session) != null) return null;
+		file(session);
+		for(ISessionListener listener : listeners){
+			listener.sessionCreated(sid, session.validUntil);
+		}
+		return session.map;
+	}
+
+	@Override
+	public synchronized int removeExpired() {
+		long now = System.currentTimeMillis();
+		long currentTick = now / tick;
+		// every bucket is visited at most once, even if the last run was long ago
+		long from = Math.max(nextTick, currentTick - wheel.length);
+		int removed = 0;
+		long visited = 0;
+		List<SessionMapEntry> refreshed = new ArrayList<>();
+		for(long t = from; t < currentTick; t++){
+			Queue<SessionMapEntry> bucket = wheel[(int) (t & mask)];
+			SessionMapEntry session;
+			while((session = bucket.poll()) != null){
+				visited++;
+				if(sessions.get(session.sid) != session) continue; // removed on access
+				if(session.validUntil < now){
+					if(sessions.remove(session.sid, session)){
+						removed++;
+						for(ISessionListener listener : listeners){
+							listener.sessionRemoved(session.sid);
+						}
+					}
+				}
+				else{
+					refreshed.add(session);
+				}
+			}
+		}
+		nextTick = Math.max(nextTick, currentTick);
+		for(SessionMapEntry session : refreshed){
+			file(session);
+		}
+		visitedSessions += visited;
+		return removed;
+	}
+
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public synchronized void addListener(ISessionListener listener) {
+		ISessionListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		listeners = added;
+	}
+
+	@Override
+	public ISessionListener getUpdater() {
+		return updater;
+	}
+
+	@Override
+	public void export(ISessionListener listener) {
+		long now = System.currentTimeMillis();
+		for(SessionMapEntry session : sessions.values()){
+			long validUntil = session.validUntil;
+			if(validUntil < now) continue;
+			listener.sessionCreated(session.sid, validUntil);
+			for(Map.Entry<String, String> parameter : session.values.entrySet()){
+				listener.parameterSet(session.sid, parameter.getKey(), parameter.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Fetches the number of sessions visited while removing expired sessions. Besides expired sessions,
+	 * these are sessions which were refreshed or removed on access since they were filed.
+	 * @return Number of visited sessions.
+	 */
+	public long getVisitedSessions() {
+		return visitedSessions;
+	}
+
+	/**
+	 * Files the session in the bucket of the tick in which it expires.
+	 * @param session Session to file.
+	 */
+	private void file(SessionMapEntry session) {
+		wheel[(int) ((session.validUntil / tick) & mask)].add(session);
+	}
+}
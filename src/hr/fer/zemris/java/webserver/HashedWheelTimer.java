@@ -0,0 +1,316 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Timer which runs tasks after a delay using a hashed timing wheel. The wheel is an array of buckets which
+ * one thread visits in turn, one bucket per tick, and a timeout is kept in the bucket of the tick in which it
+ * expires, together with the number of wheel rounds left until then. Scheduling and cancelling a timeout
+ * are therefore constant time operations, however many timeouts are pending, at the cost of precision:
+ * timeouts expire on the first tick after their deadline.
+ * <p>
+ * Tasks run on the timer thread, so they must be short.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * Represents one scheduled task.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	public static class Timeout {
+		/**
+		 * Updater of {@link #state}.
+		 */
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+		/**
+		 * State of a timeout which is waiting for its deadline.
+		 */
+		private static final int PENDING = 0;
+		/**
+		 * State of a cancelled timeout.
+		 */
+		private static final int CANCELLED = 1;
+		/**
+		 * State of a timeout whose task was run.
+		 */
+		private static final int EXPIRED = 2;
+
+		/**
+		 * Timer of this timeout.
+		 */
+		private HashedWheelTimer timer;
+		/**
+		 * Task to run when the timeout expires.
+		 */
+		private Runnable task;
+		/**
+		 * Deadline of the timeout, in nanoseconds since the start of the timer.
+		 */
+		private long deadline;
+		/**
+		 * Number of wheel rounds left until the timeout expires.
+		 */
+		private long rounds;
+		/**
+		 * State of the timeout.
+		 */
+		private volatile int state;
+		/**
+		 * Bucket which holds this timeout, or <code>null</code> if it is not in the wheel.
+		 */
+		private Bucket bucket;
+		/**
+		 * Next timeout in the bucket.
+		 */
+		private Timeout next;
+		/**
+		 * Previous timeout in the bucket.
+		 */
+		private Timeout prev;
+
+		/**
+		 * Creates a new {@link Timeout}.
+		 * @param timer Timer of this timeout.
+		 * @param task Task to run when the timeout expires.
+		 * @param deadline Deadline of the timeout, in nanoseconds since the start of the timer.
+		 */
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels this timeout, unless it already expired.
+		 * @return <code>true</code> if the timeout was cancelled, <code>false</code> if its task already runs.
+		 */
+		public boolean cancel() {
+			if(!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+			timer.cancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * Checks whether the task of this timeout was run.
+		 * @return <code>true</code> if the timeout expired, <code>false</code> otherwise.
+		 */
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		/**
+		 * Runs the task if the timeout was not cancelled.
+		 */
+		private void expire() {
+			if(!STATE.compareAndSet(this, PENDING, EXPIRED)) return;
+			try {
+				task.run();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Represents one bucket of the wheel, which is a doubly linked list of timeouts.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class Bucket {
+		/**
+		 * First timeout in the bucket.
+		 */
+		Timeout head;
+		/**
+		 * Last timeout in the bucket.
+		 */
+		Timeout tail;
+
+		/**
+		 * Adds the given timeout to the end of the bucket.
+		 * @param timeout Timeout to add.
+		 */
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if(head == null){
+				head = tail = timeout;
+			}
+			else{
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		/**
+		 * Removes the given timeout from the bucket.
+		 * @param timeout Timeout to remove.
+		 * @return Timeout which followed the removed one.
+		 */
+		Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if(timeout.prev != null){
+				timeout.prev.next = next;
+			}
+			else{
+				head = next;
+			}
+			if(next != null){
+				next.prev = timeout.prev;
+			}
+			else{
+				tail = timeout.prev;
+			}
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+	}
+
+	/**
+	 * Buckets of the wheel. Their number is a power of two.
+	 */
+	private Bucket[] wheel;
+	/**
+	 * Mask which maps a tick to its bucket.
+	 */
+	private int mask;
+	/**
+	 * Duration of one tick, in nanoseconds.
+	 */
+	private long tickDuration;
+	/**
+	 * Start of the timer, in nanoseconds.
+	 */
+	private long startTime = System.nanoTime();
+	/**
+	 * Timeouts which are not in the wheel yet.
+	 */
+	private Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	/**
+	 * Cancelled timeouts which are not removed from the wheel yet.
+	 */
+	private Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	/**
+	 * Thread which turns the wheel.
+	 */
+	private Thread worker;
+
+	/**
+	 * Creates and starts a new {@link HashedWheelTimer}.
+	 * @param tickDuration Duration of one tick, in milliseconds.
+	 * @param ticksPerWheel Number of buckets of the wheel, rounded up to a power of two.
+	 */
+	public HashedWheelTimer(long tickDuration, int ticksPerWheel) {
+		if(tickDuration <= 0 || ticksPerWheel <= 0) throw new IllegalArgumentException("Tick duration and wheel size must be positive.");
+		int size = 1;
+		while(size < ticksPerWheel){
+			size <<= 1;
+		}
+		wheel = new Bucket[size];
+		for(int i = 0; i < size; i++){
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+
+		worker = new Thread(this::run, "timer-wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedules the given task.
+	 * @param task Task to run.
+	 * @param delay Delay after which the task runs, in milliseconds.
+	 * @return Timeout which can be cancelled.
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay));
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the timer. Pending timeouts never expire.
+	 */
+	public void stop() {
+		worker.interrupt();
+	}
+
+	/**
+	 * Turns the wheel, one bucket per tick, until the timer is stopped.
+	 */
+	private void run() {
+		long tick = 0;
+		while(!Thread.currentThread().isInterrupted()){
+			long sleep = (tick + 1) * tickDuration - (System.nanoTime() - startTime);
+			if(sleep > 0){
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			removeCancelled();
+			transferAdded(tick);
+			expireBucket(wheel[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+
+	/**
+	 * Removes cancelled timeouts from their buckets.
+	 */
+	private void removeCancelled() {
+		Timeout timeout;
+		while((timeout = cancelled.poll()) != null){
+			if(timeout.bucket != null){
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	/**
+	 * Puts newly scheduled timeouts into their buckets.
+	 * @param tick Current tick.
+	 */
+	private void transferAdded(long tick) {
+		Timeout timeout;
+		while((timeout = added.poll()) != null){
+			if(timeout.state != Timeout.PENDING) continue;
+			long expiresAt = Math.max(tick, (timeout.deadline + tickDuration - 1) / tickDuration);
+			timeout.rounds = (expiresAt - tick) / wheel.length;
+			wheel[(int) (expiresAt & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * Expires timeouts of the given bucket whose rounds are over.
+	 * @param bucket Bucket of the current tick.
+	 */
+	private void expireBucket(Bucket bucket) {
+		Timeout timeout = bucket.head;
+		while(timeout != null){
+			if(timeout.rounds <= 0){
+				Timeout next = bucket.remove(timeout);
+				timeout.expire();
+				timeout = next;
+			}
+			else if(timeout.state == Timeout.CANCELLED){
+				timeout = bucket.remove(timeout);
+			}
+			else{
+				timeout.rounds--;
+				timeout = timeout.next;
+			}
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writer of response headers which encodes them directly into a reusable byte array, so a header is
+ * written with one call without building strings first. Status lines of common statuses and header
+ * names are encoded once, the <code>Date</code> header is encoded once per second, and charsets are
+ * looked up once per name. Every thread has its own writer.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class HeaderWriter {
+
+	/**
+	 * Line terminator.
+	 */
+	public static final byte[] CRLF = ascii("\r\n");
+	/**
+	 * Name of the <code>Content-Type</code> header.
+	 */
+	public static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+	/**
+	 * Parameter which sets the charset of a text content type.
+	 */
+	public static final byte[] CHARSET = ascii("; charset=");
+	/**
+	 * Name of the <code>Set-Cookie</code> header.
+	 */
+	public static final byte[] SET_COOKIE = ascii("Set-Cookie: ");
+	/**
+	 * Name of the <code>Content-Length</code> header.
+	 */
+	public static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+	/**
+	 * Complete <code>Transfer-Encoding</code> header for chunked responses.
+	 */
+	public static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+	/**
+	 * Name of the <code>Content-Encoding</code> header.
+	 */
+	public static final byte[] CONTENT_ENCODING = ascii("Content-Encoding: ");
+	/**
+	 * Name of the <code>ETag</code> header.
+	 */
+	public static final byte[] ETAG = ascii("ETag: ");
+	/**
+	 * Complete <code>Vary</code> header for responses which may be compressed.
+	 */
+	public static final byte[] VARY_ACCEPT_ENCODING = ascii("Vary: Accept-Encoding\r\n");
+	/**
+	 * Name of the <code>Connection</code> header.
+	 */
+	public static final byte[] CONNECTION = ascii("Connection: ");
+
+	/**
+	 * Reason phrases of common statuses, indexed by status code.
+	 */
+	private static final String[] REASONS = new String[600];
+	/**
+	 * Encoded status lines of common statuses, indexed by status code.
+	 */
+	private static final byte[][] STATUS_LINES = new byte[600][];
+
+	static {
+		REASONS[200] = "OK";
+		REASONS[206] = "Partial Content";
+		REASONS[304] = "Not Modified";
+		REASONS[400] = "Bad Request";
+		REASONS[403] = "Forbidden";
+		REASONS[404] = "Not Found";
+		REASONS[416] = "Range Not Satisfiable";
+		REASONS[500] = "Internal Server Error";
+		REASONS[503] = "Service Unavailable";
+		for(int code = 0; code < REASONS.length; code++){
+			if(REASONS[code] != null){
+				STATUS_LINES[code] = ascii("HTTP/1.1 " + code + " " + REASONS[code] + "\r\n");
+			}
+		}
+	}
+
+	/**
+	 * Writers of all threads.
+	 */
+	private static final ThreadLocal<HeaderWriter> WRITERS = ThreadLocal.withInitial(HeaderWriter::new);
+	/**
+	 * Charsets by their names.
+	 */
+	private static final Map<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+	/**
+	 * Formatter of the <code>Date</code> header.
+	 */
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+	/**
+	 * <code>Date</code> header of the current second.
+	 */
+	private static volatile DateHeader date = new DateHeader(-1);
+
+	/**
+	 * Represents the <code>Date</code> header of one second.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class DateHeader {
+		/**
+		 * Second of the header, since the epoch.
+		 */
+		final long second;
+		/**
+		 * Encoded header line.
+		 */
+		final byte[] bytes;
+
+		/**
+		 * Creates a new {@link DateHeader}.
+		 * @param second Second of the header, since the epoch, or -1 for an empty header.
+		 */
+		DateHeader(long second) {
+			this.second = second;
+			this.bytes = second < 0 ? new byte[0] : ascii("Date: " + DATE_FORMAT.format(Instant.ofEpochSecond(second)) + "\r\n");
+		}
+	}
+
+	/**
+	 * Encoded header.
+	 */
+	private byte[] buffer = new byte[512];
+	/**
+	 * Number of bytes in {@link #buffer}.
+	 */
+	private int length;
+
+	/**
+	 * Fetches the empty writer of the current thread.
+	 * @return Writer of the current thread.
+	 */
+	public static HeaderWriter get() {
+		HeaderWriter writer = WRITERS.get();
+		writer.length = 0;
+		return writer;
+	}
+
+	/**
+	 * Fetches the charset with the given name.
+	 * @param name Name of the charset.
+	 * @return Charset.
+	 */
+	public static Charset charset(String name) {
+		Charset charset = CHARSETS.get(name);
+		if(charset == null){
+			charset = Charset.forName(name);
+			CHARSETS.put(name, charset);
+		}
+		return charset;
+	}
+
+	/**
+	 * Appends the status line.
+	 * @param code Status code.
+	 * @param reason Reason phrase.
+	 * @return This writer.
+	 */
+	public HeaderWriter statusLine(int code, String reason) {
+		if(code >= 0 && code < STATUS_LINES.length && STATUS_LINES[code] != null && REASONS[code].equals(reason)){
+			return append(STATUS_LINES[code]);
+		}
+		return append("HTTP/1.1 ").append(code).append(" ").append(reason).append(CRLF);
+	}
+
+	/**
+	 * Appends the <code>Date</code> header of the current second.
+	 * @return This writer.
+	 */
+	public HeaderWriter date() {
+		long second = System.currentTimeMillis() / 1000;
+		DateHeader current = date;
+		if(current.second != second){
+			current = new DateHeader(second);
+			date = current;
+		}
+		return append(current.bytes);
+	}
+
+	/**
+	 * Appends a header line.
+	 * @param name Encoded name of the header, with the colon and space.
+	 * @param value Value of the header.
+	 * @return This writer.
+	 */
+	public HeaderWriter header(byte[] name, String value) {
+		return append(name).append(value).append(CRLF);
+	}
+
+	/**
+	 * Appends the given bytes.
+	 * @param bytes Bytes to append.
+	 * @return This writer.
+	 */
+	public HeaderWriter append(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Appends the given text encoded in ISO-8859-1.
+	 * @param text Text to append.
+	 * @return This writer.
+	 */
+	public HeaderWriter append(String text) {
+		int n = text.length();
+		ensureCapacity(n);
+		for(int i = 0; i < n; i++){
+			char c = text.charAt(i);
+			buffer[length++] = c < 256 ? (byte) c : (byte) '?';
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the decimal representation of the given number.
+	 * @param number Number to append.
+	 * @return This writer.
+	 */
+	public HeaderWriter append(long number) {
+		if(number < 0) return append(Long.toString(number));
+		ensureCapacity(20);
+		int digits = 1;
+		for(long rest = number / 10; rest > 0; rest /= 10){
+			digits++;
+		}
+		for(int i = length + digits - 1; i >= length; i--){
+			buffer[i] = (byte) ('0' + number % 10);
+			number /= 10;
+		}
+		length += digits;
+		return this;
+	}
+
+	/**
+	 * Writes the header to the given stream.
+	 * @param out Stream to write to.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+
+	/**
+	 * Makes sure the buffer can take the given number of additional bytes.
+	 * @param additional Number of additional bytes.
+	 */
+	private void ensureCapacity(int additional) {
+		if(length + additional > buffer.length){
+			byte[] grown = new byte[Math.max(buffer.length * 2, length + additional)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+	}
+
+	/**
+	 * Encodes the given text in US-ASCII.
+	 * @param text Text to encode.
+	 * @return Encoded text.
+	 */
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,215 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * View of a request header parsed by {@link HttpRequestParser}. Header lines are not copied into strings:
+ * the view keeps offsets of header names and values in the parser's buffer, together with a case insensitive
+ * hash of every name, and a value is decoded only when it is looked up. A view is valid until the parser
+ * reads the next request.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class HttpRequest {
+
+	/**
+	 * Buffer which holds the request header.
+	 */
+	private byte[] buffer;
+	/**
+	 * Says whether the request line is valid.
+	 */
+	private boolean valid;
+	/**
+	 * HTTP method.
+	 */
+	private String method;
+	/**
+	 * Requested path, with parameters.
+	 */
+	private String target;
+	/**
+	 * HTTP version.
+	 */
+	private String version;
+	/**
+	 * Number of header lines, without the request line.
+	 */
+	private int headerCount;
+	/**
+	 * Offsets of header names, values and their ends: four offsets per header.
+	 */
+	private int[] offsets = new int[4 * 16];
+	/**
+	 * Case insensitive hashes of header names.
+	 */
+	private int[] hashes = new int[16];
+
+	/**
+	 * Prepares this view for a new request.
+	 * @param buffer Buffer which holds the request header.
+	 */
+	void reset(byte[] buffer) {
+		this.buffer = buffer;
+		this.valid = false;
+		this.method = null;
+		this.target = null;
+		this.version = null;
+		this.headerCount = 0;
+	}
+
+	/**
+	 * Sets the parts of a valid request line.
+	 * @param method HTTP method.
+	 * @param target Requested path, with parameters.
+	 * @param version HTTP version.
+	 */
+	void setRequestLine(String method, String target, String version) {
+		this.valid = true;
+		this.method = method;
+		this.target = target;
+		this.version = version;
+	}
+
+	/**
+	 * Adds a header line.
+	 * @param nameStart Offset of the header name.
+	 * @param nameEnd Offset after the header name.
+	 * @param valueStart Offset of the value.
+	 * @param valueEnd Offset after the value.
+	 */
+	void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		if(headerCount == hashes.length){
+			int[] newOffsets = new int[offsets.length * 2];
+			System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+			offsets = newOffsets;
+			int[] newHashes = new int[hashes.length * 2];
+			System.arraycopy(hashes, 0, newHashes, 0, hashes.length);
+			hashes = newHashes;
+		}
+		int hash = 0;
+		for(int i = nameStart; i < nameEnd; i++){
+			hash = 31 * hash + toLowerCase(buffer[i]);
+		}
+		hashes[headerCount] = hash;
+		offsets[4 * headerCount] = nameStart;
+		offsets[4 * headerCount + 1] = nameEnd;
+		offsets[4 * headerCount + 2] = valueStart;
+		offsets[4 * headerCount + 3] = valueEnd;
+		headerCount++;
+	}
+
+	/**
+	 * Extends the value of the last header with a continuation line.
+	 * @param valueEnd Offset after the continuation line.
+	 */
+	void extendLastHeader(int valueEnd) {
+		if(headerCount > 0){
+			offsets[4 * headerCount - 1] = valueEnd;
+		}
+	}
+
+	/**
+	 * Checks whether the request line has a method, a path and a version.
+	 * @return <code>true</code> if the request line is valid, <code>false</code> otherwise.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Fetches the HTTP method.
+	 * @return HTTP method, or <code>null</code> if the request is not valid.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Fetches the requested path, with parameters.
+	 * @return Requested path, or <code>null</code> if the request is not valid.
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * Fetches the HTTP version.
+	 * @return HTTP version, or <code>null</code> if the request is not valid.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Fetches the value of the given header. If the header is sent more than once, the first value is returned.
+	 * @param name Name of the header, case insensitive.
+	 * @return Value of the header without surrounding whitespace, or <code>null</code> if it is not sent.
+	 */
+	public String getHeader(String name) {
+		int hash = 0;
+		for(int i = 0, n = name.length(); i < n; i++){
+			hash = 31 * hash + toLowerCase((byte) name.charAt(i));
+		}
+		for(int h = 0; h < headerCount; h++){
+			if(hashes[h] != hash || !nameEquals(h, name)) continue;
+			return value(offsets[4 * h + 2], offsets[4 * h + 3]);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether the name of the given header equals the given name, ignoring case.
+	 * @param h Index of the header.
+	 * @param name Name to compare with.
+	 * @return <code>true</code> if names are equal, <code>false</code> otherwise.
+	 */
+	private boolean nameEquals(int h, String name) {
+		int start = offsets[4 * h];
+		if(offsets[4 * h + 1] - start != name.length()) return false;
+		for(int i = 0, n = name.length(); i < n; i++){
+			if(toLowerCase(buffer[start + i]) != toLowerCase((byte) name.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a header value, trimming whitespace and joining continuation lines.
+	 * @param start Offset of the value.
+	 * @param end Offset after the value.
+	 * @return Decoded value.
+	 */
+	private String value(int start, int end) {
+		while(start < end && isWhitespace(buffer[start])) start++;
+		while(end > start && isWhitespace(buffer[end - 1])) end--;
+		for(int i = start; i < end; i++){
+			if(buffer[i] == 10 || buffer[i] == 13){
+				// continuation lines are rare, so they are joined only when found
+				StringBuilder sb = new StringBuilder(end - start);
+				for(int j = start; j < end; j++){
+					if(buffer[j] != 10 && buffer[j] != 13) sb.append((char) (buffer[j] & 0xff));
+				}
+				return sb.toString();
+			}
+		}
+		return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Checks whether the given byte is whitespace inside a header line.
+	 * @param b Byte to check.
+	 * @return <code>true</code> if the byte is whitespace, <code>false</code> otherwise.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == 32 || b == 9 || b == 10 || b == 13;
+	}
+
+	/**
+	 * Converts an ASCII letter to lower case.
+	 * @param b Byte to convert.
+	 * @return Lower case byte.
+	 */
+	private static int toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + 32 : b;
+	}
+}
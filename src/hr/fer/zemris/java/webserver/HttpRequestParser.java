@@ -0,0 +1,222 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser which reads request headers of one connection into a reusable buffer. Bytes read after the end
+ * of a header stay in the buffer and are parsed as the next pipelined request. Every call of {@link #next()}
+ * returns the same {@link HttpRequest} view, filled with the new request.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class HttpRequestParser {
+
+	/**
+	 * Stream from which requests are read.
+	 */
+	private InputStream input;
+	/**
+	 * Buffer which holds the request header and bytes read after it.
+	 */
+	private byte[] buffer;
+	/**
+	 * Offset of the first byte which was not parsed yet.
+	 */
+	private int start;
+	/**
+	 * Offset after the last byte read into the buffer.
+	 */
+	private int limit;
+	/**
+	 * View of the last parsed request.
+	 */
+	private HttpRequest request = new HttpRequest();
+
+	/**
+	 * Creates a new {@link HttpRequestParser}.
+	 * @param input Stream from which requests are read.
+	 * @param maxHeaderSize Maximum size of a request header, in bytes.
+	 */
+	public HttpRequestParser(InputStream input, int maxHeaderSize) {
+		this.input = input;
+		this.buffer = new byte[maxHeaderSize];
+	}
+
+	/**
+	 * Adds remaining bytes of the given buffer, which were already read from the stream, in front of the
+	 * bytes which are not read yet.
+	 * @param data Buffer in read mode.
+	 */
+	public void prefill(ByteBuffer data) {
+		compact();
+		if(data.remaining() > buffer.length - limit) throw new IllegalArgumentException("Prefilled data is larger than the buffer.");
+		int length = data.remaining();
+		data.get(buffer, limit, length);
+		limit += length;
+	}
+
+	/**
+	 * Fetches the number of bytes which can be parsed without blocking.
+	 * @return Number of bytes in the buffer and in the stream.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public int available() throws IOException {
+		return limit - start + input.available();
+	}
+
+	/**
+	 * Waits until at least one byte of the next request is available.
+	 * @return <code>true</code> if a byte is available, <code>false</code> if the stream ended.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public boolean awaitInput() throws IOException {
+		if(limit > start) return true;
+		compact();
+		int read = input.read(buffer, limit, buffer.length - limit);
+		if(read == -1) return false;
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Reads and parses the next request header. A header which does not fit the buffer is returned
+	 * as an invalid request.
+	 * @return Parsed request, or <code>null</code> if the stream ended before the header.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public HttpRequest next() throws IOException {
+		compact();
+		int scanned = start;
+		int end;
+		while((end = findHeaderEnd(scanned)) == -1){
+			scanned = Math.max(start, limit - 2);
+			if(limit == buffer.length){
+				request.reset(buffer);
+				start = limit = 0;
+				return request;
+			}
+			int read = input.read(buffer, limit, buffer.length - limit);
+			if(read == -1) return null;
+			limit += read;
+		}
+
+		request.reset(buffer);
+		parse(start, end);
+		start = end;
+		return request;
+	}
+
+	/**
+	 * Moves unparsed bytes to the beginning of the buffer.
+	 */
+	private void compact() {
+		if(start == 0) return;
+		System.arraycopy(buffer, start, buffer, 0, limit - start);
+		limit -= start;
+		start = 0;
+	}
+
+	/**
+	 * Finds the end of the header, which is an empty line.
+	 * @param from Offset from which the search starts.
+	 * @return Offset after the empty line, or -1 if the header is not complete.
+	 */
+	private int findHeaderEnd(int from) {
+		for(int i = from; i < limit; i++){
+			if(buffer[i] != 10) continue;
+			if(i + 1 < limit && buffer[i + 1] == 10) return i + 2;
+			if(i + 2 < limit && buffer[i + 1] == 13 && buffer[i + 2] == 10) return i + 3;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses the request line and indexes header lines.
+	 * @param from Offset of the request line.
+	 * @param to Offset after the header.
+	 */
+	private void parse(int from, int to) {
+		int lineEnd = indexOf((byte) 10, from, to);
+		parseRequestLine(from, lineEnd > from && buffer[lineEnd - 1] == 13 ? lineEnd - 1 : lineEnd);
+
+		int lineStart = lineEnd + 1;
+		while(lineStart < to){
+			lineEnd = indexOf((byte) 10, lineStart, to);
+			int contentEnd = lineEnd > lineStart && buffer[lineEnd - 1] == 13 ? lineEnd - 1 : lineEnd;
+			if(contentEnd == lineStart) break;
+			if(buffer[lineStart] == 32 || buffer[lineStart] == 9){
+				request.extendLastHeader(contentEnd);
+			}
+			else{
+				int colon = indexOf((byte) ':', lineStart, contentEnd);
+				if(colon < contentEnd){
+					request.addHeader(lineStart, colon, colon + 1, contentEnd);
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Parses the request line, which consists of a method, a path and a version separated by single spaces.
+	 * @param from Offset of the request line.
+	 * @param to Offset after the request line.
+	 */
+	private void parseRequestLine(int from, int to) {
+		int first = indexOf((byte) 32, from, to);
+		if(first == to) return;
+		int second = indexOf((byte) 32, first + 1, to);
+		if(second == to || indexOf((byte) 32, second + 1, to) != to) return;
+		if(first == from || second == first + 1 || second + 1 == to) return;
+
+		request.setRequestLine(
+			token(from, first, "GET"),
+			new String(buffer, first + 1, second - first - 1, StandardCharsets.ISO_8859_1),
+			version(second + 1, to)
+		);
+	}
+
+	/**
+	 * Decodes the HTTP version, reusing constants for supported versions.
+	 * @param from Offset of the version.
+	 * @param to Offset after the version.
+	 * @return HTTP version in upper case.
+	 */
+	private String version(int from, int to) {
+		String version = token(from, to, "HTTP/1.1");
+		return version == "HTTP/1.1" ? version : token(from, to, "HTTP/1.0");
+	}
+
+	/**
+	 * Decodes a token in upper case, reusing the given constant if the token equals it.
+	 * @param from Offset of the token.
+	 * @param to Offset after the token.
+	 * @param constant Common value of the token, in upper case.
+	 * @return Decoded token.
+	 */
+	private String token(int from, int to, String constant) {
+		if(to - from == constant.length()){
+			int i = 0;
+			while(i < constant.length() && Character.toUpperCase((char) buffer[from + i]) == constant.charAt(i)) i++;
+			if(i == constant.length()) return constant;
+		}
+		return new String(buffer, from, to - from, StandardCharsets.ISO_8859_1).toUpperCase();
+	}
+
+	/**
+	 * Finds the first occurrence of the given byte.
+	 * @param b Byte to find.
+	 * @param from Offset from which the search starts.
+	 * @param to Offset at which the search ends.
+	 * @return Offset of the byte, or <code>to</code> if it is not found.
+	 */
+	private int indexOf(byte b, int from, int to) {
+		for(int i = from; i < to; i++){
+			if(buffer[i] == b) return i;
+		}
+		return to;
+	}
+}
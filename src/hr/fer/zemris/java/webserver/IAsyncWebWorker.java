@@ -0,0 +1,31 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Implementations of this interface write their content asynchronously, for example once a slow
+ * downstream service answers. The server does not occupy a thread while the returned stage is pending:
+ * it finishes the response and continues with the connection once the stage completes. If the stage
+ * completes exceptionally before the header is written, the client gets status 500.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+
+	/**
+	 * Method which starts writing the content of a response. The context may be written from any thread
+	 * until the returned stage completes, but not after that.
+	 * @param context Context of a request.
+	 * @return Stage which completes once the content is written.
+	 */
+	public CompletionStage<Void> processRequestAsync(RequestContext context);
+
+	/**
+	 * Writes the content synchronously, waiting for the stage returned by {@link #processRequestAsync(RequestContext)}.
+	 * @param context Context of a request.
+	 */
+	@Override
+	public default void processRequest(RequestContext context) {
+		processRequestAsync(context).toCompletableFuture().join();
+	}
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+
+/**
+ * Listener of changes of sessions in an {@link ISessionStore}. Methods are called by the threads which
+ * change the sessions, after the change, so implementations must be thread-safe and must not block.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public interface ISessionListener {
+
+	/**
+	 * Called when a session is created.
+	 * @param sid Session ID.
+	 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+	 */
+	public void sessionCreated(String sid, long validUntil);
+
+	/**
+	 * Called when the validity of a session is extended.
+	 * @param sid Session ID.
+	 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+	 */
+	public void sessionRefreshed(String sid, long validUntil);
+
+	/**
+	 * Called when a persistent parameter of a session is set.
+	 * @param sid Session ID.
+	 * @param name Name of the parameter.
+	 * @param value Value of the parameter.
+	 */
+	public void parameterSet(String sid, String name, String value);
+
+	/**
+	 * Called when a persistent parameter of a session is removed.
+	 * @param sid Session ID.
+	 * @param name Name of the parameter.
+	 */
+	public void parameterRemoved(String sid, String name);
+
+	/**
+	 * Called when a session is removed.
+	 * @param sid Session ID.
+	 */
+	public void sessionRemoved(String sid);
+
+	/**
+	 * Called with a whole session, whose persistent parameters replace the known ones, so parameters which
+	 * are not given are removed. By default, the session is removed and created again with given parameters.
+	 * @param sid Session ID.
+	 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+	 * @param parameters All persistent parameters of the session.
+	 */
+	public default void sessionReplaced(String sid, long validUntil, Map<String, String> parameters) {
+		sessionRemoved(sid);
+		sessionCreated(sid, validUntil);
+		for(Map.Entry<String, String> parameter : parameters.entrySet()){
+			parameterSet(sid, parameter.getKey(), parameter.getValue());
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+
+/**
+ * Store of sessions which are identified by their session IDs. Every session has its own map of
+ * persistent parameters and stays valid until it is not used for the timeout of the store.
+ * Implementations are used by all worker threads at once, so they must be thread-safe.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public interface ISessionStore {
+
+	/**
+	 * Finds the session with the given ID and extends its validity.
+	 * @param sid Session ID.
+	 * @return Persistent parameters of the session, or <code>null</code> if the session is unknown or expired.
+	 */
+	public Map<String, String> touch(String sid);
+
+	/**
+	 * Creates a new empty session.
+	 * @param sid Session ID of the new session.
+	 * @return Persistent parameters of the new session, or <code>null</code> if a session with the given ID already exists.
+	 */
+	public Map<String, String> create(String sid);
+
+	/**
+	 * Removes all expired sessions.
+	 * @return Number of removed sessions.
+	 */
+	public int removeExpired();
+
+	/**
+	 * Fetches the number of stored sessions, including expired ones which are not removed yet.
+	 * @return Number of sessions.
+	 */
+	public int size();
+
+	/**
+	 * Adds a listener which is told about every later change of sessions. Changes made through
+	 * {@link #getUpdater()} are not reported.
+	 * @param listener Listener to add.
+	 */
+	public void addListener(ISessionListener listener);
+
+	/**
+	 * Fetches the updater which applies reported changes to this store, for example to restore saved sessions
+	 * or to apply changes made on another server. Changes applied by the updater are not reported to listeners.
+	 * A created session which is already expired is ignored, as are changes of unknown sessions.
+	 * @return Updater of this store.
+	 */
+	public ISessionListener getUpdater();
+
+	/**
+	 * Reports every valid session to the given listener, as if the session was just created and
+	 * its parameters were just set.
+	 * @param listener Listener to report to.
+	 */
+	public void export(ISessionListener listener);
+}
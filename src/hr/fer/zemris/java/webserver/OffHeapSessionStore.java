@@ -0,0 +1,1152 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of {@link ISessionStore} which keeps sessions outside of the Java heap, in direct buffers, so
+ * that millions of mostly idle sessions do not grow the old generation or the work of the garbage collector.
+ * The heap only holds a fixed number of buffers, however many sessions are stored.
+ * <p>
+ * Sessions are spread over {@link #STRIPES} stripes with their own locks. Every stripe has an index, an open
+ * addressing hash table with linear probing whose slots hold the hash of a session ID, the handle of the session
+ * record and the expiry time, and an allocator which keeps records in slabs of slots of the same size. A record
+ * holds the session ID and the persistent parameters, encoded as lengths and UTF-8 bytes:
+ * <pre>
+ * sid length (4 bytes) | sid | parameters length (4 bytes) | (key length, key, value length, value)*
+ * </pre>
+ * where lengths of keys and values are variable length integers. A record which outgrows its slot is moved to
+ * a slot of a larger size, and a record larger than a slab gets a buffer of its own, so sessions are as large
+ * as on the heap.
+ * <p>
+ * Every stripe also files its sessions in a timing wheel, like {@link ConcurrentSessionStore}: a bucket per tick
+ * holds the hashes of the sessions which expire in that tick, and the slot of a session holds the tick under
+ * which it is filed. {@link #removeExpired()} visits only the buckets of ticks which passed since its last run
+ * and finds their sessions through the index, so it never scans the whole store. Hashes stay valid when a
+ * record moves to a slot of another size, and a session which was refreshed, or which expires in a later
+ * round of a capped wheel, is filed again when its bucket is visited.
+ * <p>
+ * Persistent parameters are exposed as maps which read and write the records on every call, so
+ * {@link RequestContext} uses them just like parameters of sessions kept on the heap.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class OffHeapSessionStore implements ISessionStore {
+
+	/**
+	 * Number of stripes, a power of two.
+	 */
+	private static final int STRIPES = 64;
+	/**
+	 * Initial number of slots of an index of a stripe, a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+	/**
+	 * Largest share of used slots of an index.
+	 */
+	private static final float LOAD_FACTOR = 0.6f;
+	/**
+	 * Size of a slot of an index: handle (8 bytes), expiry time (8 bytes), hash (4 bytes) and the tick under
+	 * which the session is filed (4 bytes).
+	 */
+	private static final int SLOT_SIZE = 24;
+	/**
+	 * Offset of the expiry time in a slot of an index.
+	 */
+	private static final int SLOT_VALID_UNTIL = 8;
+	/**
+	 * Offset of the hash in a slot of an index.
+	 */
+	private static final int SLOT_HASH = 16;
+	/**
+	 * Offset of the low bits of the tick under which the session is filed in a slot of an index.
+	 */
+	private static final int SLOT_FILED = 20;
+	/**
+	 * Size of the smallest record slot.
+	 */
+	private static final int MIN_RECORD_SIZE = 32;
+	/**
+	 * Number of sizes of record slots, which double from {@link #MIN_RECORD_SIZE}.
+	 */
+	private static final int SIZE_CLASSES = 14;
+	/**
+	 * Size of a slab of record slots, which is also the size of the largest record kept in a slab.
+	 */
+	private static final int SLAB_SIZE = MIN_RECORD_SIZE << (SIZE_CLASSES - 1);
+	/**
+	 * Class of records larger than a slab, which get a buffer of their own.
+	 */
+	private static final int LARGE_CLASS = SIZE_CLASSES;
+	/**
+	 * Default duration of one tick, which is also the smallest change of the expiry time which is written,
+	 * in milliseconds.
+	 */
+	private static final long DEFAULT_TICK = 1000;
+	/**
+	 * Largest number of buckets of the wheel of a stripe.
+	 */
+	private static final int MAX_WHEEL_SIZE = 1 << 16;
+
+	/**
+	 * Slots of records of one size.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class SizeClass {
+		/**
+		 * Size of a slot.
+		 */
+		final int size;
+		/**
+		 * Number of slots in a slab.
+		 */
+		final int perSlab;
+		/**
+		 * Slabs of slots.
+		 */
+		final List<ByteBuffer> slabs = new ArrayList<>();
+		/**
+		 * Number of slots which were ever used.
+		 */
+		int used;
+		/**
+		 * Indices of freed slots.
+		 */
+		int[] free = new int[16];
+		/**
+		 * Number of freed slots.
+		 */
+		int freeCount;
+
+		/**
+		 * Creates a new {@link SizeClass}.
+		 * @param size Size of a slot.
+		 */
+		SizeClass(int size) {
+			this.size = size;
+			this.perSlab = SLAB_SIZE / size;
+		}
+	}
+
+	/**
+	 * Part of the store with its own lock, index and records.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class Stripe {
+		/**
+		 * Index of sessions.
+		 */
+		ByteBuffer index = ByteBuffer.allocateDirect(INITIAL_CAPACITY * SLOT_SIZE);
+		/**
+		 * Mask which maps a hash to a slot of the index.
+		 */
+		int mask = INITIAL_CAPACITY - 1;
+		/**
+		 * Number of sessions.
+		 */
+		int size;
+		/**
+		 * Slots of records by their sizes.
+		 */
+		final SizeClass[] classes = new SizeClass[SIZE_CLASSES];
+		/**
+		 * Buffers of records larger than a slab, <code>null</code> where freed.
+		 */
+		final List<ByteBuffer> large = new ArrayList<>();
+		/**
+		 * Indices of freed buffers of {@link #large}.
+		 */
+		int[] largeFree = new int[16];
+		/**
+		 * Number of freed buffers of {@link #large}.
+		 */
+		int largeFreeCount;
+		/**
+		 * Buckets of hashes of sessions by the tick under which they are filed, <code>null</code> where empty.
+		 */
+		final int[][] wheel;
+		/**
+		 * Numbers of hashes in the buckets of {@link #wheel}.
+		 */
+		final int[] wheelCounts;
+		/**
+		 * Mask which maps a tick to its bucket.
+		 */
+		final int wheelMask;
+
+		/**
+		 * Creates a new {@link Stripe}.
+		 * @param wheelSize Number of buckets of the wheel, a power of two.
+		 */
+		Stripe(int wheelSize) {
+			wheel = new int[wheelSize][];
+			wheelCounts = new int[wheelSize];
+			wheelMask = wheelSize - 1;
+		}
+
+		/**
+		 * Fetches the handle in the given slot of the index.
+		 * @param slot Slot of the index.
+		 * @return Handle of the record, or 0 if the slot is empty.
+		 */
+		long handle(int slot) {
+			return index.getLong(slot * SLOT_SIZE);
+		}
+
+		/**
+		 * Fetches the expiry time in the given slot of the index.
+		 * @param slot Slot of the index.
+		 * @return Time until which the session is valid, in milliseconds since the epoch.
+		 */
+		long validUntil(int slot) {
+			return index.getLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL);
+		}
+
+		/**
+		 * Finds the slot of the index which holds the given session.
+		 * @param sid Encoded session ID.
+		 * @param hash Hash of the session ID.
+		 * @return Slot of the index, or -1 if the session is not stored.
+		 */
+		int find(byte[] sid, int hash) {
+			for(int slot = hash & mask;; slot = (slot + 1) & mask){
+				long handle = handle(slot);
+				if(handle == 0) return -1;
+				if(index.getInt(slot * SLOT_SIZE + SLOT_HASH) == hash && sidEquals(handle, sid)) return slot;
+			}
+		}
+
+		/**
+		 * Fetches the low bits of the tick under which the session in the given slot of the index is filed.
+		 * @param slot Slot of the index.
+		 * @return Low bits of the tick.
+		 */
+		int filed(int slot) {
+			return index.getInt(slot * SLOT_SIZE + SLOT_FILED);
+		}
+
+		/**
+		 * Adds a session to the index and files it in the wheel.
+		 * @param handle Handle of the record of the session.
+		 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+		 * @param hash Hash of the session ID.
+		 * @param tick Tick in which the session expires.
+		 */
+		void insert(long handle, long validUntil, int hash, long tick) {
+			if(size + 1 > (mask + 1) * LOAD_FACTOR){
+				resize();
+			}
+			int slot = hash & mask;
+			while(handle(slot) != 0){
+				slot = (slot + 1) & mask;
+			}
+			writeSlot(index, slot, handle, validUntil, hash, (int) tick);
+			file(hash, tick);
+			size++;
+		}
+
+		/**
+		 * Adds a hash to the bucket of the given tick.
+		 * @param hash Hash of a session ID.
+		 * @param tick Tick of the bucket.
+		 */
+		void file(int hash, long tick) {
+			int bucket = (int) tick & wheelMask;
+			int[] hashes = wheel[bucket];
+			if(hashes == null){
+				hashes = wheel[bucket] = new int[4];
+			}
+			else if(wheelCounts[bucket] == hashes.length){
+				hashes = wheel[bucket] = Arrays.copyOf(hashes, 2 * hashes.length);
+			}
+			hashes[wheelCounts[bucket]++] = hash;
+		}
+
+		/**
+		 * Removes the session in the given slot of the index and frees its record. Later slots of the same
+		 * cluster are moved back, so no slot has to be marked as deleted.
+		 * @param slot Slot of the index.
+		 */
+		void remove(int slot) {
+			free(handle(slot));
+			int hole = slot;
+			for(int next = (slot + 1) & mask; handle(next) != 0; next = (next + 1) & mask){
+				int home = index.getInt(next * SLOT_SIZE + SLOT_HASH) & mask;
+				boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+				if(!stays){
+					writeSlot(
+						index, hole, handle(next), validUntil(next), index.getInt(next * SLOT_SIZE + SLOT_HASH), filed(next)
+					);
+					hole = next;
+				}
+			}
+			writeSlot(index, hole, 0, 0, 0, 0);
+			size--;
+		}
+
+		/**
+		 * Doubles the index.
+		 */
+		private void resize() {
+			ByteBuffer old = index;
+			int oldCapacity = mask + 1;
+			index = ByteBuffer.allocateDirect(2 * oldCapacity * SLOT_SIZE);
+			mask = 2 * oldCapacity - 1;
+			for(int slot = 0; slot < oldCapacity; slot++){
+				long handle = old.getLong(slot * SLOT_SIZE);
+				if(handle == 0) continue;
+				int hash = old.getInt(slot * SLOT_SIZE + SLOT_HASH);
+				int target = hash & mask;
+				while(handle(target) != 0){
+					target = (target + 1) & mask;
+				}
+				writeSlot(
+					index, target, handle, old.getLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL), hash,
+					old.getInt(slot * SLOT_SIZE + SLOT_FILED)
+				);
+			}
+		}
+
+		/**
+		 * Allocates a record slot, or a buffer of its own for a record larger than a slab.
+		 * @param length Length of the record.
+		 * @return Handle of the record.
+		 */
+		long allocate(int length) {
+			if(length > SLAB_SIZE){
+				int slot = largeFreeCount > 0 ? largeFree[--largeFreeCount] : large.size();
+				if(slot == large.size()){
+					large.add(null);
+				}
+				large.set(slot, ByteBuffer.allocateDirect(length));
+				return ((long) (LARGE_CLASS + 1) << 32) | slot;
+			}
+			int c = 0;
+			while(MIN_RECORD_SIZE << c < length){
+				c++;
+			}
+			SizeClass sizeClass = classes[c];
+			if(sizeClass == null){
+				sizeClass = classes[c] = new SizeClass(MIN_RECORD_SIZE << c);
+			}
+			int slot = sizeClass.freeCount > 0 ? sizeClass.free[--sizeClass.freeCount] : sizeClass.used++;
+			if(slot / sizeClass.perSlab == sizeClass.slabs.size()){
+				sizeClass.slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+			}
+			return ((long) (c + 1) << 32) | slot;
+		}
+
+		/**
+		 * Frees a record slot.
+		 * @param handle Handle of the record.
+		 */
+		void free(long handle) {
+			if(sizeClass(handle) == LARGE_CLASS){
+				// the buffer is given back to the operating system once it is collected
+				large.set((int) handle, null);
+				if(largeFreeCount == largeFree.length){
+					largeFree = Arrays.copyOf(largeFree, 2 * largeFreeCount);
+				}
+				largeFree[largeFreeCount++] = (int) handle;
+				return;
+			}
+			SizeClass sizeClass = classes[sizeClass(handle)];
+			if(sizeClass.freeCount == sizeClass.free.length){
+				sizeClass.free = Arrays.copyOf(sizeClass.free, 2 * sizeClass.freeCount);
+			}
+			sizeClass.free[sizeClass.freeCount++] = (int) handle;
+		}
+
+		/**
+		 * Fetches the capacity of the slot of the given record.
+		 * @param handle Handle of the record.
+		 * @return Size of the slot.
+		 */
+		int capacity(long handle) {
+			if(sizeClass(handle) == LARGE_CLASS) return large.get((int) handle).capacity();
+			return classes[sizeClass(handle)].size;
+		}
+
+		/**
+		 * Fetches the slab of the given record.
+		 * @param handle Handle of the record.
+		 * @return Slab which holds the record.
+		 */
+		ByteBuffer slab(long handle) {
+			if(sizeClass(handle) == LARGE_CLASS) return large.get((int) handle);
+			SizeClass sizeClass = classes[sizeClass(handle)];
+			return sizeClass.slabs.get((int) handle / sizeClass.perSlab);
+		}
+
+		/**
+		 * Fetches the offset of the given record in its slab.
+		 * @param handle Handle of the record.
+		 * @return Offset of the record.
+		 */
+		int offset(long handle) {
+			if(sizeClass(handle) == LARGE_CLASS) return 0;
+			SizeClass sizeClass = classes[sizeClass(handle)];
+			return ((int) handle % sizeClass.perSlab) * sizeClass.size;
+		}
+
+		/**
+		 * Fetches the class of the given record.
+		 * @param handle Handle of the record.
+		 * @return Index of the size class, or {@link #LARGE_CLASS}.
+		 */
+		private static int sizeClass(long handle) {
+			return (int) (handle >>> 32) - 1;
+		}
+
+		/**
+		 * Compares the session ID of the given record with the given one.
+		 * @param handle Handle of the record.
+		 * @param sid Encoded session ID.
+		 * @return <code>true</code> if the session IDs are equal.
+		 */
+		boolean sidEquals(long handle, byte[] sid) {
+			ByteBuffer slab = slab(handle);
+			int offset = offset(handle);
+			if(slab.getInt(offset) != sid.length) return false;
+			for(int i = 0; i < sid.length; i++){
+				if(slab.get(offset + 4 + i) != sid[i]) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Reads the session ID of the given record.
+		 * @param handle Handle of the record.
+		 * @return Session ID.
+		 */
+		String sid(long handle) {
+			ByteBuffer slab = slab(handle);
+			int offset = offset(handle);
+			return new String(read(slab, offset + 4, slab.getInt(offset)), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Reads the encoded parameters of the given record.
+		 * @param handle Handle of the record.
+		 * @return Encoded parameters.
+		 */
+		byte[] parameters(long handle) {
+			ByteBuffer slab = slab(handle);
+			int offset = offset(handle);
+			offset += 4 + slab.getInt(offset);
+			return read(slab, offset + 4, slab.getInt(offset));
+		}
+
+		/**
+		 * Writes a record.
+		 * @param handle Handle of the record.
+		 * @param sid Encoded session ID.
+		 * @param parameters Encoded parameters.
+		 */
+		void write(long handle, byte[] sid, byte[] parameters) {
+			ByteBuffer slab = slab(handle);
+			int offset = offset(handle);
+			slab.putInt(offset, sid.length);
+			put(slab, offset + 4, sid);
+			slab.putInt(offset + 4 + sid.length, parameters.length);
+			put(slab, offset + 8 + sid.length, parameters);
+		}
+
+		/**
+		 * Replaces the parameters of the session in the given slot of the index, moving its record to a slot
+		 * of another size if needed.
+		 * @param slot Slot of the index.
+		 * @param sid Encoded session ID.
+		 * @param parameters Encoded parameters.
+		 */
+		void update(int slot, byte[] sid, byte[] parameters) {
+			long handle = handle(slot);
+			int length = recordLength(sid, parameters);
+			int capacity = capacity(handle);
+			if(length > capacity || (capacity > MIN_RECORD_SIZE && length <= capacity / 2)){
+				long moved = allocate(length);
+				free(handle);
+				handle = moved;
+				index.putLong(slot * SLOT_SIZE, handle);
+			}
+			write(handle, sid, parameters);
+		}
+
+		/**
+		 * Removes the expired sessions of the bucket of the given tick and files the others again. Sessions which
+		 * are filed under a later tick are left in the bucket, and hashes of removed sessions are dropped.
+		 * @param tick Tick of the bucket, which has passed.
+		 * @param now Current time, in milliseconds since the epoch.
+		 * @param duration Duration of one tick, in milliseconds.
+		 * @param sids List to which IDs of removed sessions are added, or <code>null</code>.
+		 * @return Number of removed sessions.
+		 */
+		int reap(long tick, long now, long duration, List<String> sids) {
+			int bucket = (int) tick & wheelMask;
+			int[] hashes = wheel[bucket];
+			int count = wheelCounts[bucket];
+			wheel[bucket] = null;
+			wheelCounts[bucket] = 0;
+			int removed = 0;
+			for(int i = 0; i < count; i++){
+				int hash = hashes[i];
+				boolean later = false;
+				int slot = hash & mask;
+				while(handle(slot) != 0){
+					if(index.getInt(slot * SLOT_SIZE + SLOT_HASH) != hash || (filed(slot) & wheelMask) != bucket){
+						slot = (slot + 1) & mask;
+					}
+					else if((int) tick - filed(slot) < 0){
+						// filed in a later round of the wheel
+						later = true;
+						slot = (slot + 1) & mask;
+					}
+					else if(validUntil(slot) < now){
+						if(sids != null){
+							sids.add(sid(handle(slot)));
+						}
+						// a later slot may be moved into this one, so it is checked again
+						remove(slot);
+						removed++;
+					}
+					else{
+						// refreshed since it was filed, so it is filed again under its expiry time
+						long refiled = validUntil(slot) / duration;
+						index.putInt(slot * SLOT_SIZE + SLOT_FILED, (int) refiled);
+						file(hash, refiled);
+						slot = (slot + 1) & mask;
+					}
+				}
+				if(later){
+					file(hash, tick);
+				}
+			}
+			return removed;
+		}
+
+		/**
+		 * Fetches the number of bytes allocated outside of the heap.
+		 * @return Number of bytes.
+		 */
+		long allocated() {
+			long bytes = index.capacity();
+			for(SizeClass sizeClass : classes){
+				if(sizeClass != null){
+					bytes += (long) sizeClass.slabs.size() * SLAB_SIZE;
+				}
+			}
+			for(ByteBuffer buffer : large){
+				if(buffer != null){
+					bytes += buffer.capacity();
+				}
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Map of persistent parameters of a session which reads and writes the record of the session.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class SessionParameters extends AbstractMap<String, String> {
+		/**
+		 * Session ID.
+		 */
+		private final String sid;
+
+		/**
+		 * Creates new {@link SessionParameters}.
+		 * @param sid Session ID.
+		 */
+		SessionParameters(String sid) {
+			this.sid = sid;
+		}
+
+		@Override
+		public String get(Object key) {
+			return key instanceof String ? getParameter(sid, (String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public String put(String key, String value) {
+			// setting null removes the parameter, since a missing parameter reads as null
+			if(value == null) return remove(key);
+			String old = setParameter(sid, key, value);
+			for(ISessionListener listener : listeners){
+				listener.parameterSet(sid, key, value);
+			}
+			return old;
+		}
+
+		@Override
+		public String remove(Object key) {
+			if(!(key instanceof String)) return null;
+			String old = setParameter(sid, (String) key, null);
+			if(old != null){
+				for(ISessionListener listener : listeners){
+					listener.parameterRemoved(sid, (String) key);
+				}
+			}
+			return old;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return Collections.unmodifiableMap(getParameters(sid)).entrySet();
+		}
+	}
+
+	/**
+	 * Applies reported changes without reporting them again.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class Updater implements ISessionListener {
+
+		@Override
+		public void sessionCreated(String sid, long validUntil) {
+			if(validUntil < System.currentTimeMillis()) return;
+			byte[] encoded = encode(sid);
+			int hash = hash(sid);
+			Stripe stripe = stripe(hash);
+			synchronized(stripe){
+				int slot = stripe.find(encoded, hash);
+				if(slot == -1){
+					insert(stripe, encoded, validUntil, hash);
+				}
+				else if(stripe.validUntil(slot) < validUntil){
+					stripe.index.putLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL, validUntil);
+				}
+			}
+		}
+
+		@Override
+		public void sessionRefreshed(String sid, long validUntil) {
+			byte[] encoded = encode(sid);
+			int hash = hash(sid);
+			Stripe stripe = stripe(hash);
+			synchronized(stripe){
+				int slot = stripe.find(encoded, hash);
+				if(slot != -1 && stripe.validUntil(slot) < validUntil){
+					stripe.index.putLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL, validUntil);
+				}
+			}
+		}
+
+		@Override
+		public void parameterSet(String sid, String name, String value) {
+			setParameter(sid, name, value);
+		}
+
+		@Override
+		public void parameterRemoved(String sid, String name) {
+			setParameter(sid, name, null);
+		}
+
+		@Override
+		public void sessionRemoved(String sid) {
+			byte[] encoded = encode(sid);
+			int hash = hash(sid);
+			Stripe stripe = stripe(hash);
+			synchronized(stripe){
+				int slot = stripe.find(encoded, hash);
+				if(slot != -1){
+					stripe.remove(slot);
+				}
+			}
+		}
+
+		@Override
+		public void sessionReplaced(String sid, long validUntil, Map<String, String> parameters) {
+			if(validUntil < System.currentTimeMillis()) return;
+			byte[] encoded = encode(sid);
+			int hash = hash(sid);
+			Stripe stripe = stripe(hash);
+			synchronized(stripe){
+				int slot = stripe.find(encoded, hash);
+				if(slot == -1){
+					insert(stripe, encoded, validUntil, hash);
+					slot = stripe.find(encoded, hash);
+				}
+				else if(stripe.validUntil(slot) < validUntil){
+					stripe.index.putLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL, validUntil);
+				}
+				stripe.update(slot, encoded, encode(parameters));
+			}
+		}
+	}
+
+	/**
+	 * Stripes of the store.
+	 */
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	/**
+	 * Time for which an unused session stays valid, in milliseconds.
+	 */
+	private final long timeout;
+	/**
+	 * Duration of one tick, in milliseconds.
+	 */
+	private final long tick;
+	/**
+	 * First tick whose buckets were not visited yet.
+	 */
+	private long nextTick;
+	/**
+	 * Number of hashes visited by {@link #removeExpired()}.
+	 */
+	private volatile long visitedSessions;
+	/**
+	 * Listeners of changes of sessions.
+	 */
+	private volatile ISessionListener[] listeners = new ISessionListener[0];
+	/**
+	 * Updater of this store.
+	 */
+	private final ISessionListener updater = new Updater();
+
+	/**
+	 * Creates a new {@link OffHeapSessionStore}.
+	 * @param timeout Time for which an unused session stays valid, in milliseconds.
+	 */
+	public OffHeapSessionStore(long timeout) {
+		this(timeout, DEFAULT_TICK);
+	}
+
+	/**
+	 * Creates a new {@link OffHeapSessionStore}.
+	 * @param timeout Time for which an unused session stays valid, in milliseconds.
+	 * @param tick Duration of one tick, in milliseconds.
+	 */
+	OffHeapSessionStore(long timeout, long tick) {
+		if(timeout <= 0) throw new IllegalArgumentException("Session timeout must be positive.");
+		if(tick <= 0) throw new IllegalArgumentException("Tick must be positive.");
+		this.timeout = timeout;
+		this.tick = tick;
+
+		// sized like the wheel of ConcurrentSessionStore, and buckets are only allocated when used
+		int size = 1;
+		while(size < MAX_WHEEL_SIZE && size <= 2 * (timeout / tick + 1)){
+			size <<= 1;
+		}
+		for(int i = 0; i < STRIPES; i++){
+			stripes[i] = new Stripe(size);
+		}
+		nextTick = System.currentTimeMillis() / tick;
+	}
+
+	@Override
+	public Map<String, String> touch(String sid) {
+		byte[] encoded = encode(sid);
+		int hash = hash(sid);
+		Stripe stripe = stripe(hash);
+		long now = System.currentTimeMillis();
+		boolean expired = false;
+		boolean refreshed = false;
+		synchronized(stripe){
+			int slot = stripe.find(encoded, hash);
+			if(slot == -1) return null;
+			long validUntil = stripe.validUntil(slot);
+			if(validUntil < now){
+				stripe.remove(slot);
+				expired = true;
+			}
+			else if(now + timeout - validUntil >= tick){
+				stripe.index.putLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL, now + timeout);
+				refreshed = true;
+			}
+		}
+		for(ISessionListener listener : listeners){
+			if(expired){
+				listener.sessionRemoved(sid);
+			}
+			else if(refreshed){
+				listener.sessionRefreshed(sid, now + timeout);
+			}
+		}
+		return expired ? null : new SessionParameters(sid);
+	}
+
+	@Override
+	public Map<String, String> create(String sid) {
+		byte[] encoded = encode(sid);
+		int hash = hash(sid);
+		Stripe stripe = stripe(hash);
+		long validUntil = System.currentTimeMillis() + timeout;
+		synchronized(stripe){
+			if(stripe.find(encoded, hash) != -1) return null;
+			insert(stripe, encoded, validUntil, hash);
+		}
+		for(ISessionListener listener : listeners){
+			listener.sessionCreated(sid, validUntil);
+		}
+		return new SessionParameters(sid);
+	}
+
+	@Override
+	public synchronized int removeExpired() {
+		long now = System.currentTimeMillis();
+		long currentTick = now / tick;
+		// every bucket is visited at most once, even if the last run was long ago
+		long from = Math.max(nextTick, currentTick - stripes[0].wheel.length);
+		int removed = 0;
+		long visited = 0;
+		List<String> sids = new ArrayList<>();
+		for(Stripe stripe : stripes){
+			boolean report = listeners.length > 0;
+			synchronized(stripe){
+				for(long t = from; t < currentTick; t++){
+					visited += stripe.wheelCounts[(int) t & stripe.wheelMask];
+					removed += stripe.reap(t, now, tick, report ? sids : null);
+				}
+			}
+			for(String sid : sids){
+				for(ISessionListener listener : listeners){
+					listener.sessionRemoved(sid);
+				}
+			}
+			sids.clear();
+		}
+		nextTick = Math.max(nextTick, currentTick);
+		visitedSessions += visited;
+		return removed;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized void addListener(ISessionListener listener) {
+		ISessionListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		listeners = added;
+	}
+
+	@Override
+	public ISessionListener getUpdater() {
+		return updater;
+	}
+
+	@Override
+	public void export(ISessionListener listener) {
+		long now = System.currentTimeMillis();
+		List<String> sids = new ArrayList<>();
+		List<Long> validUntils = new ArrayList<>();
+		List<byte[]> parameters = new ArrayList<>();
+		for(Stripe stripe : stripes){
+			// sessions of one stripe are copied at a time, so the stripe is not locked while reporting
+			synchronized(stripe){
+				for(int slot = 0; slot <= stripe.mask; slot++){
+					long handle = stripe.handle(slot);
+					if(handle == 0 || stripe.validUntil(slot) < now) continue;
+					sids.add(stripe.sid(handle));
+					validUntils.add(stripe.validUntil(slot));
+					parameters.add(stripe.parameters(handle));
+				}
+			}
+			for(int i = 0; i < sids.size(); i++){
+				String sid = sids.get(i);
+				listener.sessionCreated(sid, validUntils.get(i));
+				for(Map.Entry<String, String> parameter : decode(parameters.get(i)).entrySet()){
+					listener.parameterSet(sid, parameter.getKey(), parameter.getValue());
+				}
+			}
+			sids.clear();
+			validUntils.clear();
+			parameters.clear();
+		}
+	}
+
+	/**
+	 * Fetches the number of sessions visited while removing expired sessions. Besides expired sessions,
+	 * these are sessions which were refreshed or removed on access since they were filed.
+	 * @return Number of visited sessions.
+	 */
+	public long getVisitedSessions() {
+		return visitedSessions;
+	}
+
+	/**
+	 * Fetches the number of bytes allocated outside of the heap for indices and records.
+	 * @return Number of bytes.
+	 */
+	public long getAllocated() {
+		long bytes = 0;
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				bytes += stripe.allocated();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Fetches the value of a persistent parameter.
+	 * @param sid Session ID.
+	 * @param name Name of the parameter.
+	 * @return Value of the parameter, or <code>null</code> if the parameter or the session does not exist.
+	 */
+	private String getParameter(String sid, String name) {
+		byte[] encoded = encode(sid);
+		int hash = hash(sid);
+		Stripe stripe = stripe(hash);
+		byte[] parameters;
+		synchronized(stripe){
+			int slot = stripe.find(encoded, hash);
+			if(slot == -1) return null;
+			parameters = stripe.parameters(stripe.handle(slot));
+		}
+		byte[] key = encode(name);
+		int[] pos = new int[1];
+		while(pos[0] < parameters.length){
+			int keyLength = readLength(parameters, pos);
+			boolean matches = keyLength == key.length && regionEquals(parameters, pos[0], key);
+			pos[0] += keyLength;
+			int valueLength = readLength(parameters, pos);
+			if(matches) return new String(parameters, pos[0], valueLength, StandardCharsets.UTF_8);
+			pos[0] += valueLength;
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches all persistent parameters of a session.
+	 * @param sid Session ID.
+	 * @return Parameters by their names, empty if the session does not exist.
+	 */
+	private Map<String, String> getParameters(String sid) {
+		byte[] encoded = encode(sid);
+		int hash = hash(sid);
+		Stripe stripe = stripe(hash);
+		byte[] parameters;
+		synchronized(stripe){
+			int slot = stripe.find(encoded, hash);
+			if(slot == -1) return Collections.emptyMap();
+			parameters = stripe.parameters(stripe.handle(slot));
+		}
+		return decode(parameters);
+	}
+
+	/**
+	 * Sets or removes a persistent parameter.
+	 * @param sid Session ID.
+	 * @param name Name of the parameter.
+	 * @param value New value of the parameter, or <code>null</code> to remove it.
+	 * @return Old value of the parameter, or <code>null</code> if it was not set.
+	 */
+	private String setParameter(String sid, String name, String value) {
+		byte[] encoded = encode(sid);
+		int hash = hash(sid);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe){
+			int slot = stripe.find(encoded, hash);
+			if(slot == -1) return null;
+			Map<String, String> parameters = decode(stripe.parameters(stripe.handle(slot)));
+			String old = value == null ? parameters.remove(name) : parameters.put(name, value);
+			if(value != null || old != null){
+				stripe.update(slot, encoded, encode(parameters));
+			}
+			return old;
+		}
+	}
+
+	/**
+	 * Adds a session without parameters to the given stripe.
+	 * @param stripe Stripe of the session.
+	 * @param sid Encoded session ID.
+	 * @param validUntil Time until which the session is valid, in milliseconds since the epoch.
+	 * @param hash Hash of the session ID.
+	 */
+	private void insert(Stripe stripe, byte[] sid, long validUntil, int hash) {
+		byte[] parameters = new byte[0];
+		long handle = stripe.allocate(recordLength(sid, parameters));
+		stripe.write(handle, sid, parameters);
+		stripe.insert(handle, validUntil, hash, validUntil / tick);
+	}
+
+	/**
+	 * Fetches the stripe of the given hash.
+	 * @param hash Hash of a session ID.
+	 * @return Stripe of the session.
+	 */
+	private Stripe stripe(int hash) {
+		// the index uses the low bits of the hash, so the stripe is chosen by the high bits
+		return stripes[hash >>> (32 - Integer.numberOfTrailingZeros(STRIPES))];
+	}
+
+	/**
+	 * Computes the hash of a session ID.
+	 * @param sid Session ID.
+	 * @return Hash of the session ID.
+	 */
+	private static int hash(String sid) {
+		int h = sid.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Computes the length of a record.
+	 * @param sid Encoded session ID.
+	 * @param parameters Encoded parameters.
+	 * @return Length of the record.
+	 */
+	private static int recordLength(byte[] sid, byte[] parameters) {
+		return 4 + sid.length + 4 + parameters.length;
+	}
+
+	/**
+	 * Encodes the given text in UTF-8.
+	 * @param text Text to encode.
+	 * @return Encoded text.
+	 */
+	private static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encodes the given parameters.
+	 * @param parameters Parameters by their names.
+	 * @return Encoded parameters.
+	 */
+	private static byte[] encode(Map<String, String> parameters) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(Map.Entry<String, String> parameter : parameters.entrySet()){
+			byte[] key = encode(parameter.getKey());
+			byte[] value = encode(parameter.getValue());
+			writeLength(out, key.length);
+			out.write(key, 0, key.length);
+			writeLength(out, value.length);
+			out.write(value, 0, value.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the given parameters.
+	 * @param parameters Encoded parameters.
+	 * @return Parameters by their names, in the order of encoding.
+	 */
+	private static Map<String, String> decode(byte[] parameters) {
+		Map<String, String> decoded = new LinkedHashMap<>();
+		int[] pos = new int[1];
+		while(pos[0] < parameters.length){
+			int keyLength = readLength(parameters, pos);
+			String key = new String(parameters, pos[0], keyLength, StandardCharsets.UTF_8);
+			pos[0] += keyLength;
+			int valueLength = readLength(parameters, pos);
+			decoded.put(key, new String(parameters, pos[0], valueLength, StandardCharsets.UTF_8));
+			pos[0] += valueLength;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Writes a length as a variable length integer, seven bits per byte.
+	 * @param out Stream to write to.
+	 * @param length Length to write.
+	 */
+	private static void writeLength(ByteArrayOutputStream out, int length) {
+		while(length >= 0x80){
+			out.write((length & 0x7f) | 0x80);
+			length >>>= 7;
+		}
+		out.write(length);
+	}
+
+	/**
+	 * Reads a length written by {@link #writeLength(ByteArrayOutputStream, int)}.
+	 * @param bytes Bytes to read from.
+	 * @param pos Position of the length, which is moved after it.
+	 * @return Read length.
+	 */
+	private static int readLength(byte[] bytes, int[] pos) {
+		int length = 0;
+		for(int shift = 0;; shift += 7){
+			byte b = bytes[pos[0]++];
+			length |= (b & 0x7f) << shift;
+			if(b >= 0) return length;
+		}
+	}
+
+	/**
+	 * Compares a region of the given bytes with the given key.
+	 * @param bytes Bytes which contain the region.
+	 * @param offset Start of the region.
+	 * @param key Key to compare with.
+	 * @return <code>true</code> if the region equals the key.
+	 */
+	private static boolean regionEquals(byte[] bytes, int offset, byte[] key) {
+		for(int i = 0; i < key.length; i++){
+			if(bytes[offset + i] != key[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an index slot.
+	 * @param index Index to write to.
+	 * @param slot Slot of the index.
+	 * @param handle Handle of the record, or 0 for an empty slot.
+	 * @param validUntil Time until which the session is valid.
+	 * @param hash Hash of the session ID.
+	 * @param filed Low bits of the tick under which the session is filed.
+	 */
+	private static void writeSlot(ByteBuffer index, int slot, long handle, long validUntil, int hash, int filed) {
+		index.putLong(slot * SLOT_SIZE, handle);
+		index.putLong(slot * SLOT_SIZE + SLOT_VALID_UNTIL, validUntil);
+		index.putInt(slot * SLOT_SIZE + SLOT_HASH, hash);
+		index.putInt(slot * SLOT_SIZE + SLOT_FILED, filed);
+	}
+
+	/**
+	 * Reads bytes from a buffer without moving its position.
+	 * @param buffer Buffer to read from.
+	 * @param offset Offset of the first byte.
+	 * @param length Number of bytes.
+	 * @return Read bytes.
+	 */
+	private static byte[] read(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes bytes to a buffer without moving its position.
+	 * @param buffer Buffer to write to.
+	 * @param offset Offset of the first byte.
+	 * @param bytes Bytes to write.
+	 */
+	private static void put(ByteBuffer buffer, int offset, byte[] bytes) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.put(bytes);
+	}
+}
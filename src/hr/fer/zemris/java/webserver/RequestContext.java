@@ -1,7 +1,13 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -102,6 +108,19 @@ public class RequestContext {
 		}
 	}
 	
+	/**
+	 * Line terminator used in chunked bodies.
+	 */
+	private static final byte[] CRLF = {13, 10};
+	/**
+	 * Chunk which ends a chunked body.
+	 */
+	private static final byte[] LAST_CHUNK = {'0', 13, 10, 13, 10};
+	/**
+	 * Hexadecimal digits of chunk sizes.
+	 */
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
 	/**
 	 * Output stream.
 	 */
@@ -130,6 +149,10 @@ public class RequestContext {
 	 * Parameters.
 	 */
 	private Map<String, String> parameters;
+	/**
+	 * Path variables captured by the matched route.
+	 */
+	private Map<String, String> pathVariables = Collections.emptyMap();
 	/**
 	 * Temporary parameters.
 	 */
@@ -142,16 +165,94 @@ public class RequestContext {
 	 * Output cookies.
 	 */
 	private List<RCCookie> outputCookies;
+	/**
+	 * Additional header lines, without line terminators.
+	 */
+	private List<String> headers = new ArrayList<>();
 	/**
 	 * Says whether header was already generated.
 	 */
 	private boolean headerGenerated = false;
+	/**
+	 * Length of the response body, or <code>null</code> if it is not known in advance.
+	 */
+	private Long contentLength;
+	/**
+	 * Value of the <code>Connection</code> header, or <code>null</code> if the header is not sent.
+	 */
+	private String connection;
+	/**
+	 * Buffer which holds the beginning of a body whose length is not known in advance. If the
+	 * response is finished before the buffer fills up, the length is sent in the header.
+	 */
+	private ByteArrayOutputStream bodyBuffer;
+	/**
+	 * Maximum number of body bytes held in {@link #bodyBuffer}.
+	 */
+	private int bufferSize = 8192;
+	/**
+	 * Says whether the client understands chunked transfer encoding.
+	 */
+	private boolean chunkedAllowed = false;
+	/**
+	 * Says whether the body is sent in chunks.
+	 */
+	private boolean chunked = false;
+	/**
+	 * Content coding accepted by the client, or <code>null</code> if the body is not compressed.
+	 */
+	private String compression;
+	/**
+	 * Minimal body size, in bytes, which is compressed.
+	 */
+	private int compressionMinSize;
+	/**
+	 * Says whether text bodies are compressed for clients which accept it, so responses depend on
+	 * the <code>Accept-Encoding</code> header.
+	 */
+	private boolean negotiable;
+	/**
+	 * Entity tag of the uncompressed body, or <code>null</code>.
+	 */
+	private String eTag;
+	/**
+	 * Says whether the body may be compressed, once its size is known.
+	 */
+	private boolean compressible = false;
+	/**
+	 * Says whether the body is compressed.
+	 */
+	private boolean compressing = false;
+	/**
+	 * Stream which compresses a streamed body, or <code>null</code>.
+	 */
+	private CompressingOutputStream compressor;
+	/**
+	 * Stream which buffers or frames the body before it is written to {@link #outputStream}.
+	 */
+	private OutputStream bodyStream = new BodyOutputStream();
+	/**
+	 * Says whether the response was finished.
+	 */
+	private boolean finished = false;
+	/**
+	 * Says whether the response was aborted, after which nothing may be written.
+	 */
+	private boolean aborted = false;
+	/**
+	 * Channel which {@link #outputStream} writes to, or <code>null</code> if it is not known.
+	 */
+	private WritableByteChannel outputChannel;
+	/**
+	 * Writer of text, created on first use.
+	 */
+	private Writer writer;
 	
 	/**
 	 * Creates a new {@link RequestContext}.
 	 * @param outputStream Output stream.
 	 * @param parameters Parameters.
-	 * @param persistentParameters Persistent parameters.
+	 * @param persistentParameters Persistent parameters, which are used directly and not copied.
 	 * @param outputCookies Output cookies.
 	 */
 	public RequestContext(OutputStream outputStream, Map<String,String> parameters,
@@ -162,7 +263,8 @@ public class RequestContext {
 		
 		this.parameters = parameters == null ? new HashMap<>() : new HashMap<String, String>(parameters);
 		
-		this.persistentParameters = persistentParameters == null ? new HashMap<>() : new HashMap<String, String>(persistentParameters);
+		// persistent parameters belong to the session, so changes have to reach the given map
+		this.persistentParameters = persistentParameters == null ? new HashMap<>() : persistentParameters;
 		
 		this.outputCookies = outputCookies == null ? new ArrayList<>() : new ArrayList<RCCookie>(outputCookies);
 		
@@ -205,6 +307,115 @@ public class RequestContext {
 		this.mimeType = mimeType;
 	}
 	
+	/**
+	 * Setter for content length. If set, the <code>Content-Length</code> header is sent and
+	 * the body is written directly to the output.
+	 * @param contentLength Length of the response body, in bytes.
+	 */
+	public void setContentLength(long contentLength){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.contentLength = contentLength;
+	}
+	
+	/**
+	 * Tells the context whether the connection should stay open after this response. Once this is set,
+	 * every response is delimited: a body of unknown length is buffered up to the buffer size and sent
+	 * with its length, and a larger body is sent in chunks, or delimited by closing the connection if
+	 * the client does not understand chunks.
+	 * @param keepAlive <code>true</code> if the connection should be kept alive, <code>false</code> otherwise.
+	 */
+	void setKeepAlive(boolean keepAlive){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.connection = keepAlive ? "keep-alive" : "close";
+	}
+	
+	/**
+	 * Tells the context which HTTP version the client uses. Chunked transfer encoding is used only
+	 * for HTTP/1.1 clients.
+	 * @param version HTTP version of the request.
+	 */
+	void setVersion(String version){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.chunkedAllowed = version.equals("HTTP/1.1");
+	}
+	
+	/**
+	 * Setter for the maximum number of body bytes which are buffered to send the body length.
+	 * @param bufferSize New buffer size.
+	 */
+	void setBufferSize(int bufferSize){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * Tells the context which content coding the client accepts. Text bodies of at least the given
+	 * size are then compressed with that coding.
+	 * @param compression Content coding, <code>gzip</code> or <code>deflate</code>, or <code>null</code>.
+	 * @param compressionMinSize Minimal body size, in bytes, which is compressed.
+	 */
+	void setCompression(String compression, int compressionMinSize){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.compression = compression;
+		this.compressionMinSize = compressionMinSize;
+	}
+	
+	/**
+	 * Tells the context that the server compresses text bodies for clients which accept it, so text
+	 * responses are sent with <code>Vary: Accept-Encoding</code> even when they are not compressed.
+	 * @param negotiable <code>true</code> if text bodies may be compressed.
+	 */
+	void setNegotiable(boolean negotiable){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.negotiable = negotiable;
+	}
+	
+	/**
+	 * Sets the entity tag of the uncompressed body. A compressed body is sent with a tag of its
+	 * own, see {@link #codingETag(String, String)}.
+	 * @param eTag Strong entity tag, in quotes.
+	 */
+	public void setETag(String eTag){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		this.eTag = eTag;
+	}
+	
+	/**
+	 * Derives the entity tag of a compressed body from the tag of the uncompressed one, since the
+	 * bodies differ byte by byte and must not share a strong tag.
+	 * @param eTag Strong entity tag of the uncompressed body, in quotes.
+	 * @param coding Content coding of the body.
+	 * @return Entity tag of the compressed body.
+	 */
+	public static String codingETag(String eTag, String coding){
+		return eTag.substring(0, eTag.length() - 1) + "-" + coding + "\"";
+	}
+	
+	/**
+	 * Checks whether the connection can be kept alive after this response.
+	 * @return <code>true</code> if the connection can be kept alive, <code>false</code> otherwise.
+	 */
+	boolean isKeepAlive(){
+		return "keep-alive".equals(connection);
+	}
+	
+	/**
+	 * Sets the channel which the output stream writes to. File content is then transferred
+	 * directly to that channel instead of being copied through the output stream.
+	 * @param outputChannel Channel which the output stream writes to.
+	 */
+	void setOutputChannel(WritableByteChannel outputChannel){
+		this.outputChannel = outputChannel;
+	}
+	
+	/**
+	 * Sets the path variables captured by the matched route.
+	 * @param pathVariables Path variables by their names.
+	 */
+	void setPathVariables(Map<String, String> pathVariables){
+		this.pathVariables = pathVariables;
+	}
+	
 	/**
 	 * Fetches the {@link #headerGenerated} variable value.
 	 * @return The {@link #headerGenerated} variable value.
@@ -230,6 +441,23 @@ public class RequestContext {
 		return parameters.keySet();
 	}
 	
+	/**
+	 * Method that retrieves value of a path variable captured by the matched route (or null if there is none).
+	 * @param name Name of the path variable.
+	 * @return Value of the path variable (or null if there is none).
+	 */
+	public String getPathVariable(String name){
+		return pathVariables.get(name);
+	}
+	
+	/**
+	 * Method that retrieves names of all path variables captured by the matched route.
+	 * @return Names of all path variables.
+	 */
+	public Set<String> getPathVariableNames(){
+		return pathVariables.keySet();
+	}
+	
 	/**
 	 * Method that retrieves value from persistentParameters map (or null if no association exists).
 	 * @param name Key for the wanted value.
@@ -298,6 +526,16 @@ public class RequestContext {
 		temporaryParameters.remove(name);
 	}
 	
+	/**
+	 * Adds an additional header to the response.
+	 * @param name Name of the header.
+	 * @param value Value of the header.
+	 */
+	public void addHeader(String name, String value){
+		if(headerGenerated) throw new RuntimeException("Header was already generated!");
+		headers.add(name + ": " + value);
+	}
+	
 	/**
 	 * Adds a new {@link RCCookie} to {@link #outputCookies}.
 	 * @param cookie New cookie to be added to {@link #outputCookies}.
@@ -313,11 +551,12 @@ public class RequestContext {
 	 * @return Returns {@link RequestContext} changed.
 	 * @throws IOException If an IO Error occurs.
 	 */
-	public RequestContext write(byte[] data) throws IOException{
+	public synchronized RequestContext write(byte[] data) throws IOException{
+		checkAborted();
 		if(!headerGenerated){
 			generateHeader();
 		}
-		outputStream.write(data);
+		output().write(data);
 		
 		return this;
 	}
@@ -328,15 +567,269 @@ public class RequestContext {
 	 * @return Returns {@link RequestContext} changed.
 	 * @throws IOException If an IO Error occurs.
 	 */
-	public RequestContext write(String text) throws IOException{
+	public synchronized RequestContext write(String text) throws IOException{
+		checkAborted();
+		if(!headerGenerated){
+			generateHeader();
+		}
+		TextEncoder.get(charset).encode(text, 0, text.length(), output());
+		
+		return this;
+	}
+	
+	/**
+	 * Fetches the writer which encodes text directly to the output with the charset of the response.
+	 * The header is generated once the writer is first written to. Closing the writer has no effect.
+	 * @return Writer of the response.
+	 */
+	public Writer getWriter() {
+		if(writer == null){
+			writer = new ContextWriter();
+		}
+		return writer;
+	}
+	
+	/**
+	 * Writes a region of the given file to a specified output. If the output channel is known, bytes
+	 * are transferred by the operating system without being copied to the heap.
+	 * @param file File to write.
+	 * @param position Position in the file from which writing starts.
+	 * @param count Number of bytes to write.
+	 * @return Returns {@link RequestContext} changed.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public synchronized RequestContext write(FileChannel file, long position, long count) throws IOException{
+		checkAborted();
+		if(!headerGenerated){
+			generateHeader();
+		}
+		OutputStream output = output();
+		WritableByteChannel target;
+		if(output == outputStream && outputChannel != null){
+			outputStream.flush();
+			target = outputChannel;
+		}
+		else{
+			target = Channels.newChannel(output);
+		}
+		while(count > 0){
+			long transferred = file.transferTo(position, count, target);
+			if(transferred <= 0) throw new IOException("File ended before " + count + " more bytes were written.");
+			position += transferred;
+			count -= transferred;
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Writes remaining bytes of the given buffer to a specified output. If the output channel is known,
+	 * bytes are written to it directly, without copying them to the heap.
+	 * @param data Buffer to write.
+	 * @return Returns {@link RequestContext} changed.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public synchronized RequestContext write(ByteBuffer data) throws IOException{
+		checkAborted();
 		if(!headerGenerated){
 			generateHeader();
 		}
-		byte[] data = text.getBytes(charset);
-		outputStream.write(data);
+		OutputStream output = output();
+		WritableByteChannel target;
+		if(output == outputStream && outputChannel != null){
+			outputStream.flush();
+			target = outputChannel;
+		}
+		else{
+			target = Channels.newChannel(output);
+		}
+		while(data.hasRemaining()){
+			target.write(data);
+		}
 		
 		return this;
 	}
+	
+	/**
+	 * Completes the response. The header is generated if nothing was written and the buffered
+	 * body, if any, is written to the output together with its length.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public synchronized void finish() throws IOException{
+		checkAborted();
+		if(finished) return;
+		if(!headerGenerated){
+			if(connection != null && contentLength == null){
+				contentLength = 0L;
+			}
+			generateHeader();
+		}
+		finished = true;
+		if(bodyBuffer != null){
+			if(compressible && bodyBuffer.size() >= compressionMinSize){
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(bodyBuffer.size() / 2);
+				CompressingOutputStream cos = new CompressingOutputStream(compressed, compression);
+				bodyBuffer.writeTo(cos);
+				cos.finish();
+				bodyBuffer = compressed;
+				compressing = true;
+			}
+			contentLength = (long) bodyBuffer.size();
+			writeHeader();
+			bodyBuffer.writeTo(outputStream);
+			bodyBuffer = null;
+			return;
+		}
+		if(compressor != null){
+			compressor.finish();
+		}
+		if(chunked){
+			outputStream.write(LAST_CHUNK);
+		}
+	}
+	
+	/**
+	 * Aborts the response, for example when the connection missed its deadline and its buffer is about to
+	 * be released. A write which is in progress is waited for, and later writes throw an {@link IOException}.
+	 */
+	synchronized void abort(){
+		aborted = true;
+	}
+	
+	/**
+	 * Checks that the response was not aborted.
+	 * @throws IOException If the response was aborted.
+	 */
+	private void checkAborted() throws IOException {
+		if(aborted) throw new IOException("Response was aborted.");
+	}
+	
+	/**
+	 * Fetches the stream to which the body is written.
+	 * @return {@link #bodyStream} while the body is buffered or chunked, {@link #outputStream} otherwise.
+	 */
+	private OutputStream output(){
+		if(finished) throw new RuntimeException("Response was already finished!");
+		if(compressor != null) return compressor;
+		return bodyBuffer != null || chunked ? bodyStream : outputStream;
+	}
+	
+	/**
+	 * Writes the header and the buffered part of a body which does not fit {@link #bodyBuffer}.
+	 * The rest of the body is sent in chunks, or until the connection is closed.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void startStreaming() throws IOException {
+		ByteArrayOutputStream buffered = bodyBuffer;
+		bodyBuffer = null;
+		if(chunkedAllowed){
+			chunked = true;
+		}
+		else{
+			connection = "close";
+		}
+		compressing = compressible;
+		writeHeader();
+		if(compressing){
+			compressor = new CompressingOutputStream(bodyStream, compression);
+		}
+		buffered.writeTo(output());
+	}
+	
+	/**
+	 * Writer which encodes text directly to the output of this context.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class ContextWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			synchronized(RequestContext.this){
+				checkAborted();
+				if(!headerGenerated){
+					generateHeader();
+				}
+				TextEncoder.get(charset).encode(cbuf, off, len, output());
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			synchronized(RequestContext.this){
+				checkAborted();
+				if(!headerGenerated){
+					generateHeader();
+				}
+				TextEncoder.get(charset).encode(str, off, len, output());
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+	
+	/**
+	 * Stream which buffers the body while it fits {@link #bodyBuffer} and frames it as chunks
+	 * once it is streamed with chunked transfer encoding.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class BodyOutputStream extends OutputStream {
+		
+		/**
+		 * Line which starts a chunk, filled from the end.
+		 */
+		private final byte[] chunkSize = new byte[10];
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(len == 0) return;
+			if(bodyBuffer != null){
+				if(bodyBuffer.size() + len <= bufferSize){
+					bodyBuffer.write(b, off, len);
+					return;
+				}
+				startStreaming();
+				output().write(b, off, len);
+				return;
+			}
+			if(chunked){
+				writeChunkSize(len);
+				outputStream.write(b, off, len);
+				outputStream.write(CRLF);
+			}
+			else{
+				outputStream.write(b, off, len);
+			}
+		}
+		
+		/**
+		 * Writes the line which starts a chunk of the given size.
+		 * @param len Size of the chunk.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private void writeChunkSize(int len) throws IOException {
+			int pos = chunkSize.length;
+			chunkSize[--pos] = 10;
+			chunkSize[--pos] = 13;
+			do {
+				chunkSize[--pos] = HEX_DIGITS[len & 15];
+				len >>>= 4;
+			} while(len != 0);
+			outputStream.write(chunkSize, pos, chunkSize.length - pos);
+		}
+	}
 
 	/**
 	 * Helper method which generates header.
@@ -344,29 +837,70 @@ public class RequestContext {
 	 */
 	private void generateHeader() throws IOException {
 		headerGenerated = true;
-		charset = Charset.forName(encoding);
+		charset = HeaderWriter.charset(encoding);
 		
-		StringBuilder header = new StringBuilder();
-		header.append("HTTP/1.1 " + statusCode + " " + statusText + "\r\n");
-		header.append("Content-Type: " + mimeType);
-		header.append(mimeType.startsWith("text/") ? "; charset=" + encoding + "\r\n" : "\r\n");
-		if(!outputCookies.isEmpty()){
-			for(RCCookie cookie : outputCookies){
-				header.append("Set-Cookie: " + cookie.name + "=\"" + cookie.value + "\"");
-				if(cookie.domain != null){
-					header.append("; Domain=" + cookie.domain);
-				}
-				if(cookie.path != null){
-					header.append("; Path=" + cookie.path);
-				}
-				if(cookie.maxAge != null){
-					header.append("; Max-Age=" + cookie.maxAge);
-				}
-				header.append("\r\n");
+		compressible = compression != null && connection != null && mimeType.startsWith("text/")
+				&& (contentLength == null || contentLength >= compressionMinSize);
+		if(compressible){
+			// length of the compressed body is not known in advance
+			contentLength = null;
+		}
+		if(connection != null && contentLength == null){
+			// header is written once it is known whether the body fits the buffer
+			bodyBuffer = new ByteArrayOutputStream(Math.min(bufferSize, 512));
+			return;
+		}
+		writeHeader();
+	}
+	
+	/**
+	 * Helper method which writes header to the output.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void writeHeader() throws IOException {
+		HeaderWriter header = HeaderWriter.get();
+		header.statusLine(statusCode, statusText).date();
+		header.append(HeaderWriter.CONTENT_TYPE).append(mimeType);
+		if(mimeType.startsWith("text/")){
+			header.append(HeaderWriter.CHARSET).append(encoding);
+		}
+		header.append(HeaderWriter.CRLF);
+		for(RCCookie cookie : outputCookies){
+			header.append(HeaderWriter.SET_COOKIE).append(cookie.name).append("=\"").append(cookie.value).append("\"");
+			if(cookie.domain != null){
+				header.append("; Domain=").append(cookie.domain);
+			}
+			if(cookie.path != null){
+				header.append("; Path=").append(cookie.path);
+			}
+			if(cookie.maxAge != null){
+				header.append("; Max-Age=").append(cookie.maxAge.longValue());
 			}
+			header.append(HeaderWriter.CRLF);
+		}
+		for(String line : headers){
+			header.append(line).append(HeaderWriter.CRLF);
+		}
+		if(eTag != null){
+			header.header(HeaderWriter.ETAG, compressing ? codingETag(eTag, compression) : eTag);
+		}
+		if(contentLength != null && statusCode != 304){
+			header.append(HeaderWriter.CONTENT_LENGTH).append(contentLength.longValue()).append(HeaderWriter.CRLF);
+		}
+		if(chunked){
+			header.append(HeaderWriter.TRANSFER_ENCODING_CHUNKED);
+		}
+		if(compressing){
+			header.header(HeaderWriter.CONTENT_ENCODING, compression);
+		}
+		if(compressing || (negotiable && mimeType.startsWith("text/"))){
+			header.append(HeaderWriter.VARY_ACCEPT_ENCODING);
+		}
+		if(connection != null){
+			header.header(HeaderWriter.CONNECTION, connection);
 		}
-		header.append("\r\n");
+		header.append(HeaderWriter.CRLF);
 		
-		outputStream.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+		header.writeTo(outputStream);
 	}
 } 
\ No newline at end of file
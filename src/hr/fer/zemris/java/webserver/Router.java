@@ -0,0 +1,291 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Router which maps request paths to values using a radix trie. A route pattern consists of static text,
+ * variable segments written as <code>{name}</code>, which match one non-empty path segment, and an optional
+ * final wildcard written as <code>*</code> or <code>*name</code>, which matches the rest of the path. Static
+ * text shared by several routes is stored once, so a path is matched by walking the trie along its characters.
+ * At every node static text is tried first, then a variable segment and then a wildcard, so the router goes
+ * back only when a more specific branch fails.
+ * @author Mislav Gillinger
+ * @version 1.0
+ * @param <T> Type of routed values.
+ */
+public class Router<T> {
+
+	/**
+	 * Name of the variable captured by an unnamed wildcard.
+	 */
+	public static final String WILDCARD = "*";
+
+	/**
+	 * Represents a matched route.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 * @param <T> Type of routed values.
+	 */
+	public static class Match<T> {
+		/**
+		 * Value of the route.
+		 */
+		private T value;
+		/**
+		 * Values of path variables by their names.
+		 */
+		private Map<String, String> variables;
+
+		/**
+		 * Creates a new {@link Match}.
+		 * @param value Value of the route.
+		 * @param variables Values of path variables by their names.
+		 */
+		public Match(T value, Map<String, String> variables) {
+			this.value = value;
+			this.variables = variables;
+		}
+
+		/**
+		 * Fetches the value of the route.
+		 * @return Value of the route.
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		/**
+		 * Fetches the values of path variables.
+		 * @return Unmodifiable map of path variables by their names.
+		 */
+		public Map<String, String> getVariables() {
+			return variables;
+		}
+	}
+
+	/**
+	 * Represents one node of the trie.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 * @param <T> Type of routed values.
+	 */
+	private static class Node<T> {
+		/**
+		 * Static text which a path has to contain to enter this node.
+		 */
+		String prefix;
+		/**
+		 * First characters of static children, in the order of {@link #children}.
+		 */
+		char[] indices = new char[0];
+		/**
+		 * Static children of this node.
+		 */
+		List<Node<T>> children = new ArrayList<>();
+		/**
+		 * Child which matches a variable segment, or <code>null</code>.
+		 */
+		Node<T> variable;
+		/**
+		 * Child which matches the rest of the path, or <code>null</code>.
+		 */
+		Node<T> wildcard;
+		/**
+		 * Value of the route which ends in this node, or <code>null</code>.
+		 */
+		T value;
+		/**
+		 * Names of path variables of the route which ends in this node, in order of their appearance.
+		 */
+		String[] names;
+
+		/**
+		 * Creates a new {@link Node}.
+		 * @param prefix Static text which a path has to contain to enter this node.
+		 */
+		Node(String prefix) {
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Finds the static child whose text starts with the given character.
+		 * @param c First character.
+		 * @return Index of the child, or -1 if there is none.
+		 */
+		int indexOf(char c) {
+			for(int i = 0; i < indices.length; i++){
+				if(indices[i] == c) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Adds a static child.
+		 * @param child Child to add.
+		 */
+		void addChild(Node<T> child) {
+			indices = Arrays.copyOf(indices, indices.length + 1);
+			indices[indices.length - 1] = child.prefix.charAt(0);
+			children.add(child);
+		}
+	}
+
+	/**
+	 * Root of the trie.
+	 */
+	private Node<T> root = new Node<>("");
+	/**
+	 * Largest number of path variables of a route.
+	 */
+	private int maxVariables;
+
+	/**
+	 * Adds a route.
+	 * @param pattern Pattern of the route.
+	 * @param value Value of the route.
+	 * @throws IllegalArgumentException If the pattern is invalid or already routed.
+	 */
+	public void add(String pattern, T value) {
+		if(value == null) throw new IllegalArgumentException("Value of a route can not be null.");
+		List<String> names = new ArrayList<>();
+		Node<T> node = root;
+		int pos = 0;
+		while(pos < pattern.length()){
+			char c = pattern.charAt(pos);
+			boolean segmentStart = pos == 0 || pattern.charAt(pos - 1) == '/';
+			if(c == '{' && segmentStart){
+				int close = pattern.indexOf('}', pos);
+				if(close == -1 || close == pos + 1 || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')){
+					throw new IllegalArgumentException("Variable must be a whole path segment: " + pattern);
+				}
+				names.add(pattern.substring(pos + 1, close));
+				if(node.variable == null){
+					node.variable = new Node<>("");
+				}
+				node = node.variable;
+				pos = close + 1;
+			}
+			else if(c == '*' && segmentStart){
+				if(pattern.indexOf('/', pos) != -1){
+					throw new IllegalArgumentException("Wildcard must be the last path segment: " + pattern);
+				}
+				names.add(pos == pattern.length() - 1 ? WILDCARD : pattern.substring(pos + 1));
+				if(node.wildcard == null){
+					node.wildcard = new Node<>("");
+				}
+				node = node.wildcard;
+				pos = pattern.length();
+			}
+			else{
+				int end = pos;
+				while(end < pattern.length() && !((pattern.charAt(end) == '{' || pattern.charAt(end) == '*') && pattern.charAt(end - 1) == '/')){
+					end++;
+				}
+				node = insertStatic(node, pattern.substring(pos, end));
+				pos = end;
+			}
+		}
+		if(node.value != null) throw new IllegalArgumentException("Route already exists: " + pattern);
+		node.value = value;
+		node.names = names.toArray(new String[names.size()]);
+		maxVariables = Math.max(maxVariables, names.size());
+	}
+
+	/**
+	 * Finds the route of the given path.
+	 * @param path Path to match.
+	 * @return Matched route, or <code>null</code> if no route matches.
+	 */
+	public Match<T> match(String path) {
+		int[] captures = new int[2 * maxVariables];
+		Node<T> node = match(root, path, 0, captures, 0);
+		if(node == null) return null;
+		if(node.names.length == 0) return new Match<>(node.value, Collections.<String, String>emptyMap());
+		Map<String, String> variables = new HashMap<>();
+		for(int i = 0; i < node.names.length; i++){
+			variables.put(node.names[i], path.substring(captures[2 * i], captures[2 * i + 1]));
+		}
+		return new Match<>(node.value, Collections.unmodifiableMap(variables));
+	}
+
+	/**
+	 * Inserts static text below the given node, splitting nodes whose text only partially matches.
+	 * @param node Node below which the text is inserted.
+	 * @param text Static text.
+	 * @return Node in which the text ends.
+	 */
+	private Node<T> insertStatic(Node<T> node, String text) {
+		while(true){
+			int index = node.indexOf(text.charAt(0));
+			if(index == -1){
+				Node<T> child = new Node<>(text);
+				node.addChild(child);
+				return child;
+			}
+			Node<T> child = node.children.get(index);
+			int common = 0;
+			int max = Math.min(child.prefix.length(), text.length());
+			while(common < max && child.prefix.charAt(common) == text.charAt(common)){
+				common++;
+			}
+			if(common < child.prefix.length()){
+				// split the child at the end of the common text
+				Node<T> split = new Node<>(child.prefix.substring(0, common));
+				child.prefix = child.prefix.substring(common);
+				split.addChild(child);
+				node.children.set(index, split);
+				child = split;
+			}
+			if(common == text.length()) return child;
+			node = child;
+			text = text.substring(common);
+		}
+	}
+
+	/**
+	 * Matches the rest of the path below the given node.
+	 * @param node Node whose text is matched at given position.
+	 * @param path Path to match.
+	 * @param pos Position in the path.
+	 * @param captures Start and end positions of captured variables.
+	 * @param count Number of captured variables.
+	 * @return Node in which the matched route ends, or <code>null</code> if no route matches.
+	 */
+	private Node<T> match(Node<T> node, String path, int pos, int[] captures, int count) {
+		if(!path.startsWith(node.prefix, pos)) return null;
+		pos += node.prefix.length();
+
+		if(pos < path.length()){
+			int index = node.indexOf(path.charAt(pos));
+			if(index != -1){
+				Node<T> found = match(node.children.get(index), path, pos, captures, count);
+				if(found != null) return found;
+			}
+			if(node.variable != null && path.charAt(pos) != '/'){
+				int end = path.indexOf('/', pos);
+				if(end == -1){
+					end = path.length();
+				}
+				captures[2 * count] = pos;
+				captures[2 * count + 1] = end;
+				Node<T> found = match(node.variable, path, end, captures, count + 1);
+				if(found != null) return found;
+			}
+		}
+		else if(node.value != null){
+			return node;
+		}
+
+		if(node.wildcard != null && node.wildcard.value != null){
+			captures[2 * count] = pos;
+			captures[2 * count + 1] = path.length();
+			return node.wildcard;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,518 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Journal which keeps sessions of an {@link ISessionStore} on disk, so they survive a restart of the server.
+ * Every change of a session is appended to a log as a record, such as <code>pparamSet</code> and
+ * <code>pparamDel</code> for changes of persistent parameters. Request threads only queue the records, and
+ * the journal thread appends the queued records to the log once per {@link #FLUSH_INTERVAL}, so up to one
+ * interval of changes is lost if the process dies. Once the log grows larger than the last snapshot, all
+ * valid sessions are written to a new snapshot and the log is started again. When the journal is opened,
+ * the snapshot and the log are replayed into the store.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class SessionJournal implements ISessionListener {
+
+	/**
+	 * Record of a created session.
+	 */
+	static final byte SESSION_CREATED = 1;
+	/**
+	 * Record of a refreshed session.
+	 */
+	static final byte SESSION_REFRESHED = 2;
+	/**
+	 * Record of a set persistent parameter.
+	 */
+	static final byte PPARAM_SET = 3;
+	/**
+	 * Record of a removed persistent parameter.
+	 */
+	static final byte PPARAM_DEL = 4;
+	/**
+	 * Record of a removed session.
+	 */
+	static final byte SESSION_REMOVED = 5;
+	/**
+	 * Record of a whole session, whose parameters replace the known ones.
+	 */
+	static final byte SESSION_RESET = 6;
+
+	/**
+	 * Time between two appends to the log, in milliseconds.
+	 */
+	private static final long FLUSH_INTERVAL = 1000;
+	/**
+	 * Size of the log, in bytes, below which the log is never compacted.
+	 */
+	private static final long MIN_COMPACTION_SIZE = 1 << 20;
+	/**
+	 * Largest length of a string in a record, in bytes.
+	 */
+	private static final int MAX_STRING_LENGTH = 1 << 24;
+	/**
+	 * Name of the log file.
+	 */
+	private static final String LOG_FILE = "sessions.log";
+	/**
+	 * Name of the snapshot file.
+	 */
+	private static final String SNAPSHOT_FILE = "sessions.snapshot";
+
+	/**
+	 * Represents one queued record.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	static class Record {
+		/**
+		 * Type of the record.
+		 */
+		final byte type;
+		/**
+		 * Session ID.
+		 */
+		final String sid;
+		/**
+		 * Time until which the session is valid, for records of created and refreshed sessions.
+		 */
+		final long validUntil;
+		/**
+		 * Name of the parameter, for records of parameters.
+		 */
+		final String name;
+		/**
+		 * Value of the parameter, for records of set parameters.
+		 */
+		final String value;
+
+		/**
+		 * Creates a new {@link Record}.
+		 * @param type Type of the record.
+		 * @param sid Session ID.
+		 * @param validUntil Time until which the session is valid.
+		 * @param name Name of the parameter.
+		 * @param value Value of the parameter.
+		 */
+		Record(byte type, String sid, long validUntil, String name, String value) {
+			this.type = type;
+			this.sid = sid;
+			this.validUntil = validUntil;
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Listener which writes reported changes to a stream.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	static class RecordWriter implements ISessionListener {
+		/**
+		 * Stream to write to.
+		 */
+		final DataOutputStream out;
+		/**
+		 * First error which occurred, or <code>null</code>.
+		 */
+		IOException error;
+
+		/**
+		 * Creates a new {@link RecordWriter}.
+		 * @param out Stream to write to.
+		 */
+		RecordWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Writes the given record.
+		 * @param record Record to write.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		void write(Record record) throws IOException {
+			out.writeByte(record.type);
+			writeString(record.sid);
+			switch(record.type){
+			case SESSION_CREATED:
+			case SESSION_REFRESHED:
+				out.writeLong(record.validUntil);
+				break;
+			case PPARAM_SET:
+				writeString(record.name);
+				writeString(record.value);
+				break;
+			case PPARAM_DEL:
+				writeString(record.name);
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * Writes the given string in UTF-8, after its length.
+		 * @param text String to write.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private void writeString(String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * Writes the given record, keeping the first error for later.
+		 * @param record Record to write.
+		 */
+		private void report(Record record) {
+			if(error != null) return;
+			try {
+				write(record);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+
+		@Override
+		public void sessionCreated(String sid, long validUntil) {
+			report(new Record(SESSION_CREATED, sid, validUntil, null, null));
+		}
+
+		@Override
+		public void sessionRefreshed(String sid, long validUntil) {
+			report(new Record(SESSION_REFRESHED, sid, validUntil, null, null));
+		}
+
+		@Override
+		public void parameterSet(String sid, String name, String value) {
+			report(new Record(PPARAM_SET, sid, 0, name, value));
+		}
+
+		@Override
+		public void parameterRemoved(String sid, String name) {
+			report(new Record(PPARAM_DEL, sid, 0, name, null));
+		}
+
+		@Override
+		public void sessionRemoved(String sid) {
+			report(new Record(SESSION_REMOVED, sid, 0, null, null));
+		}
+
+		@Override
+		public void sessionReplaced(String sid, long validUntil, Map<String, String> parameters) {
+			if(error != null) return;
+			try {
+				out.writeByte(SESSION_RESET);
+				writeString(sid);
+				out.writeLong(validUntil);
+				out.writeInt(parameters.size());
+				for(Map.Entry<String, String> parameter : parameters.entrySet()){
+					writeString(parameter.getKey());
+					writeString(parameter.getValue());
+				}
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Journaled store.
+	 */
+	private final ISessionStore store;
+	/**
+	 * Path to the log.
+	 */
+	private final Path logPath;
+	/**
+	 * Path to the snapshot.
+	 */
+	private final Path snapshotPath;
+	/**
+	 * Records which are not appended yet.
+	 */
+	private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * Stream which appends to the log.
+	 */
+	private FileOutputStream logFile;
+	/**
+	 * Writer of records to the log.
+	 */
+	private RecordWriter log;
+	/**
+	 * Size of the last snapshot, in bytes.
+	 */
+	private long snapshotSize;
+	/**
+	 * Thread which appends queued records.
+	 */
+	private Thread writer;
+	/**
+	 * Says whether the journal is open.
+	 */
+	private volatile boolean open;
+
+	/**
+	 * Creates a new {@link SessionJournal}.
+	 * @param directory Directory in which the log and the snapshot are kept.
+	 * @param store Store to journal.
+	 */
+	public SessionJournal(Path directory, ISessionStore store) {
+		this.store = store;
+		this.logPath = directory.resolve(LOG_FILE);
+		this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+	}
+
+	/**
+	 * Replays the snapshot and the log into the store, compacts them, and starts journaling changes of the store.
+	 * @return Number of replayed records.
+	 * @throws IOException If the journal can not be written.
+	 */
+	public synchronized long open() throws IOException {
+		if(open) throw new IllegalStateException("Journal is already open.");
+		Files.createDirectories(logPath.getParent());
+		long replayed = replay(snapshotPath) + replay(logPath);
+		compact();
+		store.addListener(this);
+		open = true;
+
+		writer = new Thread(this::writeLoop, "session-journal");
+		writer.setDaemon(true);
+		writer.start();
+		return replayed;
+	}
+
+	/**
+	 * Appends the queued records and stops journaling.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized(this){
+			if(!open) return;
+			open = false;
+			thread = writer;
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fetches the size of the log, in bytes.
+	 * @return Size of the log.
+	 */
+	public synchronized long getLogSize() {
+		return log == null ? 0 : log.out.size();
+	}
+
+	@Override
+	public void sessionCreated(String sid, long validUntil) {
+		queue(new Record(SESSION_CREATED, sid, validUntil, null, null));
+	}
+
+	@Override
+	public void sessionRefreshed(String sid, long validUntil) {
+		queue(new Record(SESSION_REFRESHED, sid, validUntil, null, null));
+	}
+
+	@Override
+	public void parameterSet(String sid, String name, String value) {
+		queue(new Record(PPARAM_SET, sid, 0, name, value));
+	}
+
+	@Override
+	public void parameterRemoved(String sid, String name) {
+		queue(new Record(PPARAM_DEL, sid, 0, name, null));
+	}
+
+	@Override
+	public void sessionRemoved(String sid) {
+		queue(new Record(SESSION_REMOVED, sid, 0, null, null));
+	}
+
+	/**
+	 * Queues the given record, unless the journal is closed.
+	 * @param record Record to queue.
+	 */
+	private void queue(Record record) {
+		if(open){
+			pending.add(record);
+		}
+	}
+
+	/**
+	 * Appends queued records once per {@link #FLUSH_INTERVAL} until the journal is closed.
+	 */
+	private void writeLoop() {
+		while(open){
+			try {
+				Thread.sleep(FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+				// closed, append what is left
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		synchronized(this){
+			try {
+				flush();
+				logFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Appends the queued records to the log, and compacts the log once it is larger than the last snapshot.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	synchronized void flush() throws IOException {
+		Record record;
+		boolean written = false;
+		while((record = pending.poll()) != null){
+			log.write(record);
+			written = true;
+		}
+		if(!written) return;
+		log.out.flush();
+		if(log.out.size() > Math.max(MIN_COMPACTION_SIZE, snapshotSize)){
+			compact();
+		}
+	}
+
+	/**
+	 * Writes all valid sessions to a new snapshot and starts a new log. Changes made while the snapshot is
+	 * written stay queued and are appended to the new log.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void compact() throws IOException {
+		Path temporary = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+		try(FileOutputStream file = new FileOutputStream(temporary.toFile())){
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			RecordWriter snapshot = new RecordWriter(out);
+			store.export(snapshot);
+			if(snapshot.error != null) throw snapshot.error;
+			out.flush();
+			file.getFD().sync();
+			snapshotSize = out.size();
+		}
+		Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if(logFile != null){
+			logFile.close();
+		}
+		logFile = new FileOutputStream(logPath.toFile());
+		log = new RecordWriter(new DataOutputStream(new BufferedOutputStream(logFile, 1 << 16)));
+	}
+
+	/**
+	 * Replays the records of the given file into the store. A record which was cut off when the process
+	 * died, or a damaged record, ends the replay.
+	 * @param path File to replay.
+	 * @return Number of replayed records.
+	 */
+	private long replay(Path path) {
+		ISessionListener updater = store.getUpdater();
+		long count = 0;
+		try(InputStream file = Files.newInputStream(path)){
+			DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+			while(read(in, updater)){
+				count++;
+			}
+		} catch (NoSuchFileException ignorable) {
+		} catch (EOFException e) {
+			System.err.println("Session journal " + path + " ends with an incomplete record, which is ignored.");
+		} catch (IOException e) {
+			System.err.println("Session journal " + path + " is damaged after " + count + " records: " + e.getMessage());
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a record written by {@link RecordWriter} and reports it to the given listener.
+	 * @param in Stream to read from.
+	 * @param listener Listener to report to.
+	 * @return <code>true</code> if a record was read, <code>false</code> if the stream ended before a record.
+	 * @throws EOFException If the stream ended inside a record.
+	 * @throws IOException If the record is damaged or an IO Error occurs.
+	 */
+	static boolean read(DataInputStream in, ISessionListener listener) throws IOException {
+		int type = in.read();
+		if(type == -1) return false;
+		String sid = readString(in);
+		switch(type){
+		case SESSION_CREATED:
+			listener.sessionCreated(sid, in.readLong());
+			break;
+		case SESSION_REFRESHED:
+			listener.sessionRefreshed(sid, in.readLong());
+			break;
+		case PPARAM_SET:
+			String name = readString(in);
+			listener.parameterSet(sid, name, readString(in));
+			break;
+		case PPARAM_DEL:
+			listener.parameterRemoved(sid, readString(in));
+			break;
+		case SESSION_REMOVED:
+			listener.sessionRemoved(sid);
+			break;
+		case SESSION_RESET:
+			long validUntil = in.readLong();
+			int count = in.readInt();
+			if(count < 0) throw new IOException("Invalid number of parameters " + count + ".");
+			Map<String, String> parameters = new LinkedHashMap<>();
+			for(int i = 0; i < count; i++){
+				String key = readString(in);
+				parameters.put(key, readString(in));
+			}
+			listener.sessionReplaced(sid, validUntil, parameters);
+			break;
+		default:
+			throw new IOException("Unknown record type " + type + ".");
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a string written by {@link RecordWriter}.
+	 * @param in Stream to read from.
+	 * @return Read string.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > MAX_STRING_LENGTH) throw new IOException("Invalid string length " + length + ".");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
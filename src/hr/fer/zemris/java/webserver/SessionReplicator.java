@@ -0,0 +1,609 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import hr.fer.zemris.java.webserver.SessionJournal.Record;
+import hr.fer.zemris.java.webserver.SessionJournal.RecordWriter;
+
+/**
+ * Replicator which streams changes of sessions of an {@link ISessionStore} to other server instances over
+ * TCP, and applies changes streamed by them, so any instance can serve any session. Records are written in
+ * the format of {@link SessionJournal}.
+ * <p>
+ * Request threads only queue the changes. Every peer has its own thread which connects to the peer, sends all
+ * valid sessions of the store, and then sends queued changes in batches, at most {@link #BATCH_INTERVAL}
+ * apart. Every session is sent as a whole, so it replaces the parameters which the peer knows and parameters
+ * which were removed while the peer was not connected are removed from it too. While a peer can not be reached, its changes are not queued, and the connection is retried every
+ * {@link #RETRY_INTERVAL}, after which all sessions are sent again. Received changes are applied through
+ * {@link ISessionStore#getUpdater()}, so they are not sent on again, and every instance must list all other
+ * instances as its peers.
+ * <p>
+ * Every connection starts with a handshake in which the receiving instance sends a random challenge and the
+ * sending instance answers with its HMAC under a secret shared by all instances, so only instances which know
+ * the secret can create sessions or set their parameters. Changes themselves are neither signed nor encrypted,
+ * so the instances must be connected by a trusted network.
+ * <p>
+ * Replication is asynchronous, so a request which reaches another instance right after its session was
+ * created may still not find it.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class SessionReplicator implements ISessionListener {
+
+	/**
+	 * Value which starts every connection, so connections of other protocols are closed.
+	 */
+	private static final int MAGIC = 0x53455331;
+	/**
+	 * Longest time between sending a change and sending the batch, in milliseconds.
+	 */
+	private static final long BATCH_INTERVAL = 10;
+	/**
+	 * Time between attempts to connect to an unreachable peer, in milliseconds.
+	 */
+	private static final long RETRY_INTERVAL = 1000;
+	/**
+	 * Timeout of connecting to a peer, in milliseconds.
+	 */
+	private static final int CONNECT_TIMEOUT = 1000;
+	/**
+	 * Largest number of changes queued for a peer. A peer which falls further behind is reconnected and
+	 * gets all sessions again.
+	 */
+	private static final int MAX_PENDING = 1 << 20;
+	/**
+	 * Algorithm which signs challenges of handshakes.
+	 */
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	/**
+	 * Length of a challenge of a handshake, in bytes.
+	 */
+	private static final int CHALLENGE_LENGTH = 16;
+	/**
+	 * Value by which a receiving instance accepts the answer to its challenge.
+	 */
+	private static final int ACCEPTED = 1;
+
+	/**
+	 * Another server instance to which changes are sent.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class Peer implements Runnable {
+		/**
+		 * Address of the peer.
+		 */
+		private final InetSocketAddress address;
+		/**
+		 * Changes which are not sent yet, replaced by an empty queue for every connection.
+		 */
+		private volatile Queue<Record> pending = new ConcurrentLinkedQueue<>();
+		/**
+		 * Number of changes which are not sent yet on the current connection.
+		 */
+		private final AtomicInteger pendingCount = new AtomicInteger();
+		/**
+		 * Says whether changes are queued for the peer.
+		 */
+		private volatile boolean connected;
+		/**
+		 * Current connection to the peer, or <code>null</code>.
+		 */
+		private volatile Socket socket;
+		/**
+		 * Thread which sends changes to the peer.
+		 */
+		private Thread thread;
+
+		/**
+		 * Creates a new {@link Peer}.
+		 * @param address Address of the peer.
+		 */
+		Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * Queues the given change, if the peer is connected.
+		 * @param record Change to queue.
+		 */
+		void queue(Record record) {
+			if(!connected) return;
+			if(pendingCount.incrementAndGet() > MAX_PENDING){
+				// the sessions are sent again after reconnecting, so the queued changes are not needed
+				connected = false;
+				closeSocket();
+				return;
+			}
+			pending.add(record);
+		}
+
+		@Override
+		public void run() {
+			boolean reachable = true;
+			while(open){
+				try(Socket socket = new Socket()){
+					this.socket = socket;
+					socket.connect(address, CONNECT_TIMEOUT);
+					socket.setTcpNoDelay(true);
+					DataOutputStream out = handshake(socket);
+					if(!reachable){
+						System.err.println("Session peer " + address + " is reachable again.");
+						reachable = true;
+					}
+					send(socket, out);
+				} catch (IOException e) {
+					if(open && reachable){
+						System.err.println("Session peer " + address + " is unreachable: " + e.getMessage());
+						reachable = false;
+					}
+				} finally {
+					connected = false;
+					socket = null;
+					// changes which were not sent are dropped, since the next connection sends all sessions
+					pending = new ConcurrentLinkedQueue<>();
+				}
+				try {
+					Thread.sleep(RETRY_INTERVAL);
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+		}
+
+		/**
+		 * Answers the challenge of the peer with the shared secret.
+		 * @param socket Connection to the peer.
+		 * @return Stream to which changes are written.
+		 * @throws IOException If an IO Error occurs or the peer does not accept the answer.
+		 */
+		private DataOutputStream handshake(Socket socket) throws IOException {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			out.writeInt(MAGIC);
+			out.flush();
+			// the peer writes nothing after accepting the answer, so the stream is not buffered
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			byte[] challenge = new byte[CHALLENGE_LENGTH];
+			socket.setSoTimeout(CONNECT_TIMEOUT);
+			in.readFully(challenge);
+			out.write(sign(challenge));
+			out.flush();
+			if(in.read() != ACCEPTED) throw new IOException("Shared secret was rejected.");
+			return out;
+		}
+
+		/**
+		 * Sends all valid sessions and then the queued changes, until the replicator is closed.
+		 * @param socket Connection to the peer.
+		 * @param out Stream to which changes are written.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private void send(Socket socket, DataOutputStream out) throws IOException {
+			RecordWriter writer = new RecordWriter(out);
+			// changes made while the sessions are exported are queued and sent after them; a change queued
+			// late for an earlier connection can only reach the old queue, and the export already holds it
+			Queue<Record> queue = new ConcurrentLinkedQueue<>();
+			pending = queue;
+			pendingCount.set(0);
+			connected = true;
+			Resync resync = new Resync(writer);
+			store.export(resync);
+			resync.flush();
+			if(writer.error != null) throw writer.error;
+			out.flush();
+
+			long lastCheck = System.currentTimeMillis();
+			while(open && connected){
+				Record record = queue.poll();
+				if(record != null){
+					pendingCount.decrementAndGet();
+					writer.write(record);
+					continue;
+				}
+				out.flush();
+				if(System.currentTimeMillis() - lastCheck >= RETRY_INTERVAL){
+					checkClosed(socket);
+					lastCheck = System.currentTimeMillis();
+				}
+				try {
+					Thread.sleep(BATCH_INTERVAL);
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+			if(!connected) throw new IOException("Too many changes are queued.");
+			out.flush();
+		}
+
+		/**
+		 * Checks whether the peer closed the connection. Writing to a closed connection may succeed, so
+		 * without the check an idle peer which was restarted would never get the sessions again.
+		 * @param socket Connection to the peer.
+		 * @throws IOException If the connection is closed.
+		 */
+		private void checkClosed(Socket socket) throws IOException {
+			// the peer never writes, so a read only ends with the end of the stream, an error or the timeout
+			socket.setSoTimeout(1);
+			try {
+				if(socket.getInputStream().read() == -1) throw new EOFException("Connection closed by peer.");
+			} catch (SocketTimeoutException alive) {
+			}
+		}
+
+		/**
+		 * Closes the current connection, if there is one.
+		 */
+		void closeSocket() {
+			Socket current = socket;
+			if(current != null){
+				closeQuietly(current);
+			}
+		}
+	}
+
+	/**
+	 * Listener which reports every session exported by a store, together with its parameters, as one
+	 * {@link ISessionListener#sessionReplaced(String, long, Map)}.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class Resync implements ISessionListener {
+		/**
+		 * Listener to report to.
+		 */
+		private final ISessionListener listener;
+		/**
+		 * ID of the session which is not reported yet, or <code>null</code>.
+		 */
+		private String sid;
+		/**
+		 * Time until which the session which is not reported yet is valid.
+		 */
+		private long validUntil;
+		/**
+		 * Parameters of the session which is not reported yet.
+		 */
+		private Map<String, String> parameters;
+
+		/**
+		 * Creates a new {@link Resync}.
+		 * @param listener Listener to report to.
+		 */
+		Resync(ISessionListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void sessionCreated(String sid, long validUntil) {
+			// a store exports the parameters of a session right after the session
+			flush();
+			this.sid = sid;
+			this.validUntil = validUntil;
+			this.parameters = new LinkedHashMap<>();
+		}
+
+		@Override
+		public void parameterSet(String sid, String name, String value) {
+			parameters.put(name, value);
+		}
+
+		@Override
+		public void sessionRefreshed(String sid, long validUntil) {
+		}
+
+		@Override
+		public void parameterRemoved(String sid, String name) {
+		}
+
+		@Override
+		public void sessionRemoved(String sid) {
+		}
+
+		/**
+		 * Reports the last exported session.
+		 */
+		void flush() {
+			if(sid == null) return;
+			listener.sessionReplaced(sid, validUntil, parameters);
+			sid = null;
+			parameters = null;
+		}
+	}
+
+	/**
+	 * Replicated store.
+	 */
+	private final ISessionStore store;
+	/**
+	 * Secret shared by all instances, which signs challenges of handshakes.
+	 */
+	private final SecretKeySpec key;
+	/**
+	 * Source of challenges of handshakes.
+	 */
+	private final SecureRandom random = new SecureRandom();
+	/**
+	 * Address on which changes are received, or <code>null</code> if they are not received.
+	 */
+	private final InetSocketAddress listenAddress;
+	/**
+	 * Peers to which changes are sent.
+	 */
+	private final List<Peer> peers = new ArrayList<>();
+	/**
+	 * Connections from which changes are received.
+	 */
+	private final List<Socket> incoming = new ArrayList<>();
+	/**
+	 * Socket which accepts connections of peers.
+	 */
+	private ServerSocket serverSocket;
+	/**
+	 * Thread which accepts connections of peers.
+	 */
+	private Thread acceptor;
+	/**
+	 * Says whether the replicator is open.
+	 */
+	private volatile boolean open;
+
+	/**
+	 * Creates a new {@link SessionReplicator}.
+	 * @param store Store to replicate.
+	 * @param listenAddress Address on which changes are received, or <code>null</code> to only send changes.
+	 * @param peers Addresses of peers to which changes are sent.
+	 * @param secret Secret shared by all instances.
+	 * @throws IllegalArgumentException If the secret is empty.
+	 */
+	public SessionReplicator(ISessionStore store, InetSocketAddress listenAddress, List<InetSocketAddress> peers, String secret) {
+		if(secret == null || secret.isEmpty()) throw new IllegalArgumentException("Session replication needs a shared secret.");
+		this.store = store;
+		this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+		this.listenAddress = listenAddress;
+		for(InetSocketAddress address : peers){
+			this.peers.add(new Peer(address));
+		}
+	}
+
+	/**
+	 * Parses a comma separated list of <code>host:port</code> addresses.
+	 * @param text List to parse.
+	 * @return Parsed addresses.
+	 * @throws IllegalArgumentException If an address is invalid.
+	 */
+	public static List<InetSocketAddress> parsePeers(String text) {
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for(String peer : text.split(",")){
+			peer = peer.trim();
+			if(peer.isEmpty()) continue;
+			int colon = peer.lastIndexOf(':');
+			if(colon <= 0) throw new IllegalArgumentException("Session peer " + peer + " is not given as host:port.");
+			addresses.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+		}
+		return addresses;
+	}
+
+	/**
+	 * Starts receiving changes and sending changes to the peers.
+	 * @throws IOException If the address for receiving changes can not be bound.
+	 */
+	public synchronized void start() throws IOException {
+		if(open) throw new IllegalStateException("Replicator is already started.");
+		if(listenAddress != null){
+			serverSocket = new ServerSocket();
+			try {
+				serverSocket.setReuseAddress(true);
+				serverSocket.bind(listenAddress);
+			} catch (IOException e) {
+				serverSocket.close();
+				serverSocket = null;
+				throw e;
+			}
+			acceptor = new Thread(this::acceptLoop, "session-replication-acceptor");
+			acceptor.setDaemon(true);
+		}
+		open = true;
+		store.addListener(this);
+		if(acceptor != null){
+			acceptor.start();
+		}
+		for(Peer peer : peers){
+			peer.thread = new Thread(peer, "session-replication-" + peer.address);
+			peer.thread.setDaemon(true);
+			peer.thread.start();
+		}
+	}
+
+	/**
+	 * Sends the queued changes and stops replicating.
+	 */
+	public void close() {
+		synchronized(this){
+			if(!open) return;
+			open = false;
+		}
+		if(serverSocket != null){
+			try {
+				serverSocket.close();
+			} catch (IOException ignorable) {
+			}
+		}
+		synchronized(incoming){
+			for(Socket socket : incoming){
+				closeQuietly(socket);
+			}
+		}
+		for(Peer peer : peers){
+			peer.thread.interrupt();
+		}
+		for(Peer peer : peers){
+			try {
+				peer.thread.join(CONNECT_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			peer.closeSocket();
+		}
+	}
+
+	/**
+	 * Fetches the local address on which changes are received.
+	 * @return Bound address, or <code>null</code> if changes are not received.
+	 */
+	public InetSocketAddress getLocalAddress() {
+		return serverSocket == null ? null : (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	@Override
+	public void sessionCreated(String sid, long validUntil) {
+		queue(new Record(SessionJournal.SESSION_CREATED, sid, validUntil, null, null));
+	}
+
+	@Override
+	public void sessionRefreshed(String sid, long validUntil) {
+		queue(new Record(SessionJournal.SESSION_REFRESHED, sid, validUntil, null, null));
+	}
+
+	@Override
+	public void parameterSet(String sid, String name, String value) {
+		queue(new Record(SessionJournal.PPARAM_SET, sid, 0, name, value));
+	}
+
+	@Override
+	public void parameterRemoved(String sid, String name) {
+		queue(new Record(SessionJournal.PPARAM_DEL, sid, 0, name, null));
+	}
+
+	@Override
+	public void sessionRemoved(String sid) {
+		queue(new Record(SessionJournal.SESSION_REMOVED, sid, 0, null, null));
+	}
+
+	/**
+	 * Queues the given change for every connected peer.
+	 * @param record Change to queue.
+	 */
+	private void queue(Record record) {
+		if(!open) return;
+		for(Peer peer : peers){
+			peer.queue(record);
+		}
+	}
+
+	/**
+	 * Signs a challenge of a handshake with the shared secret.
+	 * @param challenge Challenge to sign.
+	 * @return Signature of the challenge.
+	 */
+	private byte[] sign(byte[] challenge) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(key);
+			return mac.doFinal(challenge);
+		} catch (GeneralSecurityException e) {
+			// every Java platform supports HmacSHA256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Accepts connections of peers until the replicator is closed.
+	 */
+	private void acceptLoop() {
+		while(open){
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if(open){
+					e.printStackTrace();
+				}
+				continue;
+			}
+			Thread receiver = new Thread(() -> receive(socket), "session-replication-receiver");
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+	}
+
+	/**
+	 * Applies changes received from a peer until the connection or the replicator is closed.
+	 * @param socket Connection from the peer.
+	 */
+	private void receive(Socket socket) {
+		synchronized(incoming){
+			if(!open){
+				closeQuietly(socket);
+				return;
+			}
+			incoming.add(socket);
+		}
+		ISessionListener updater = store.getUpdater();
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			socket.setSoTimeout(CONNECT_TIMEOUT);
+			if(in.readInt() != MAGIC) return;
+			byte[] challenge = new byte[CHALLENGE_LENGTH];
+			random.nextBytes(challenge);
+			socket.getOutputStream().write(challenge);
+			byte[] expected = sign(challenge);
+			byte[] signature = new byte[expected.length];
+			in.readFully(signature);
+			if(!MessageDigest.isEqual(signature, expected)){
+				System.err.println("Session peer " + socket.getRemoteSocketAddress() + " is rejected: wrong shared secret.");
+				return;
+			}
+			socket.getOutputStream().write(ACCEPTED);
+			socket.setSoTimeout(0);
+			while(SessionJournal.read(in, updater)){
+				// applied by the updater
+			}
+		} catch (SocketException ignorable) {
+			// closed by the peer or by close()
+		} catch (IOException e) {
+			if(open){
+				System.err.println("Session replication from " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+			}
+		} finally {
+			closeQuietly(socket);
+			synchronized(incoming){
+				incoming.remove(socket);
+			}
+		}
+	}
+
+	/**
+	 * Closes the given connection, ignoring errors.
+	 * @param socket Connection to close.
+	 */
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignorable) {
+		}
+	}
+}
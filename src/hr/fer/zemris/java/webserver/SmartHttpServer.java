@@ -1,32 +1,54 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
@@ -52,6 +74,10 @@ public class SmartHttpServer {
 	 * Number of worker threads.
 	 */
 	private int workerThreads;
+	/**
+	 * Type of executor which runs client workers, <code>pool</code> or <code>virtual</code>.
+	 */
+	private String executorType;
 	/**
 	 * Root of a parsed document.
 	 */
@@ -60,28 +86,137 @@ public class SmartHttpServer {
 	 * Map of types which server recognizes.
 	 */
 	private Map<String, String> mimeTypes = new HashMap<String, String>();
+	/**
+	 * Cache of static files.
+	 */
+	private StaticFileCache fileCache;
 	/**
 	 * Number of session timeout, in seconds.
 	 */
 	private int sessionTimeout;
 	/**
-	 * Map of {@link IWebWorker}s.
+	 * Router of {@link IWebWorker}s by path patterns.
+	 */
+	private Router<IWebWorker> workerRoutes = new Router<IWebWorker>();
+	/**
+	 * Workers which are served by the name of their class under <code>/ext/</code>.
+	 */
+	private WorkerRegistry extWorkers = new WorkerRegistry("hr.fer.zemris.java.webserver.workers", getClass().getClassLoader());
+	
+	/**
+	 * Time in seconds for which a kept alive connection waits for the next request.
+	 */
+	private int keepAliveTimeout;
+	/**
+	 * Maximum number of requests served on one connection.
+	 */
+	private int maxKeepAliveRequests;
+	/**
+	 * Time in seconds in which a client has to send a request header once it starts sending it.
+	 */
+	private int headerReadTimeout;
+	/**
+	 * Time in seconds in which a response has to be produced and written to the client.
+	 */
+	private int writeTimeout;
+	/**
+	 * Timer which tracks read and write deadlines of all connections.
+	 */
+	private HashedWheelTimer deadlineTimer;
+	/**
+	 * Timer which removes expired sessions and reports shed connections.
+	 */
+	private Timer maintenanceTimer;
+	
+	/**
+	 * Maximum number of body bytes buffered to send the length of a response.
+	 */
+	private int responseBufferSize;
+	
+	/**
+	 * Says whether text responses are compressed for clients which accept it.
+	 */
+	private boolean compression;
+	/**
+	 * Minimal size of a text response, in bytes, which is compressed.
+	 */
+	private int compressionMinSize;
+	
+	/**
+	 * Maximum size of a request header, in bytes.
+	 */
+	private static final int MAX_HEADER_SIZE = 8192;
+	/**
+	 * Size of the buffer through which responses are written, in bytes.
 	 */
-	private Map<String,IWebWorker> workersMap = new HashMap<String, IWebWorker>();
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+	/**
+	 * Pool of direct buffers used for connection I/O.
+	 */
+	private BufferPool bufferPool;
 	
 	/**
-	 * Thread which runs this server.
+	 * Says whether connections are read by {@link SelectorThread}s instead of blocking {@link ClientWorker}s.
+	 */
+	private boolean selectorMode;
+	/**
+	 * Number of selector threads used when {@link #selectorMode} is on.
+	 */
+	private int selectorThreads;
+	/**
+	 * Number of threads which accept connections.
+	 */
+	private int acceptorThreads;
+	/**
+	 * Threads which accept connections, each from its own listener if the platform supports
+	 * <code>SO_REUSEPORT</code>, or all from the same listener otherwise.
 	 */
-	private ServerThread serverThread;
+	private ServerThread[] acceptors;
+	/**
+	 * Event loops which read request headers when {@link #selectorMode} is on.
+	 */
+	private SelectorThread[] selectorLoops;
 	/**
 	 * Thread pool.
 	 */
 	private ExecutorService threadPool;
+	/**
+	 * Maximum number of connections waiting for a thread of the pool, 0 for no limit.
+	 */
+	private int maxQueuedConnections;
+	/**
+	 * Maximum number of connections which are served or wait to be served at once, 0 for no limit.
+	 */
+	private int maxInFlight;
+	/**
+	 * Number of connections which are served or wait to be served.
+	 */
+	private AtomicInteger inFlight = new AtomicInteger();
+	/**
+	 * Number of connections rejected with {@link #serviceUnavailable} since the server started.
+	 */
+	private AtomicLong shedConnections = new AtomicLong();
+	/**
+	 * Precomputed response sent to rejected connections.
+	 */
+	private byte[] serviceUnavailable;
 	
 	/**
-	 * Map of sessions.
+	 * Store of sessions.
+	 */
+	private ISessionStore sessions;
+	/**
+	 * Journal which saves sessions between restarts, or <code>null</code> if sessions are kept only in memory.
+	 */
+	private SessionJournal sessionJournal;
+	/**
+	 * Replicator which shares sessions with other server instances, or <code>null</code> if sessions are not shared.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<String, SmartHttpServer.SessionMapEntry>();
+	private SessionReplicator sessionReplicator;
+	/**
+	 * Generators of session IDs, one per thread so that threads do not contend for one generator.
+	 */
+	private static final ThreadLocal<SecureRandom> SESSION_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
 	/**
 	 * Variable for generating random numbers.
 	 */
@@ -94,45 +229,67 @@ public class SmartHttpServer {
 
 		@Override
 		public void run() {
-			for(String session : sessions.keySet()){
-				if(sessions.get(session).validUntil < new Date().getTime()/1000) sessions.remove(session);
-			}
+			long start = System.nanoTime();
+			int removed = sessions.removeExpired();
+			long duration = System.nanoTime() - start;
+			expiredSessions.addAndGet(removed);
+			reapTime.addAndGet(duration);
+			lastReapTime = duration;
 		}
 
 	};
+	/**
+	 * Number of sessions removed by {@link #killSessions}.
+	 */
+	private AtomicLong expiredSessions = new AtomicLong();
+	/**
+	 * Total time spent in {@link #killSessions}, in nanoseconds.
+	 */
+	private AtomicLong reapTime = new AtomicLong();
+	/**
+	 * Time spent in the last run of {@link #killSessions}, in nanoseconds.
+	 */
+	private volatile long lastReapTime;
 	
 	/**
-	 * Represents one session.
-	 * @author Mislav Gillinger
-	 * @version 1.0
+	 * Task which reports connections rejected since the last report.
 	 */
-	private static class SessionMapEntry {
-		/**
-		 * Session ID is a string containing 20 upper case random letters.
-		 */
-		@SuppressWarnings("unused")
-		String sid;
-		/**
-		 * Represents for how long the session will be valid.
-		 */
-		long validUntil;
-		/**
-		 * Map of sessions.
-		 */
-		Map<String,String> map;
+	final TimerTask reportShed = new TimerTask() {
 		
 		/**
-		 * Creates a new {@link SessionMapEntry}.
-		 * @param sid Session ID is a string containing 20 upper case random letters.
-		 * @param validUntil Represents for how long the session will be valid.
-		 * @param map Map of sessions.
+		 * Number of rejected connections at the time of the last report.
 		 */
-		public SessionMapEntry(String sid, long validUntil, Map<String, String> map){
-			this.sid = sid;
-			this.validUntil = validUntil;
-			this.map = new ConcurrentHashMap<>(map);
+		private long reported;
+		
+		@Override
+		public void run() {
+			long shed = shedConnections.get();
+			if(shed == reported) return;
+			System.err.println("Overloaded: rejected " + (shed - reported) + " connections in the last "
+				+ SHED_REPORT_INTERVAL / 1000 + " s, " + shed + " in total.");
+			reported = shed;
 		}
-	}
+		
+	};
+	
+	/**
+	 * Duration of one tick of {@link #deadlineTimer}, in milliseconds.
+	 */
+	private static final long DEADLINE_TICK = 100;
+	/**
+	 * Number of buckets of {@link #deadlineTimer}, which covers 51.2 s per round.
+	 */
+	private static final int DEADLINE_WHEEL_SIZE = 512;
+	
+	/**
+	 * Time between two runs of {@link #killSessions}, in milliseconds.
+	 */
+	private static final long SESSION_REAP_INTERVAL = 1000;
+	
+	/**
+	 * Time between two reports of rejected connections, in milliseconds.
+	 */
+	private static final long SHED_REPORT_INTERVAL = 10 * 1000;
 	
 	/**
 	 * Creates a new {@link SmartHttpServer}.
@@ -144,30 +301,112 @@ public class SmartHttpServer {
 	 * @throws IllegalAccessException IllegalAcessException
 	 */
 	public SmartHttpServer(String configFileName) throws FileNotFoundException, IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-		serverThread = new ServerThread();
-		
 		Properties properties = new Properties();
 		properties.load(new FileInputStream(configFileName));
 		
 		address = properties.getProperty("server.address");
 		port = Integer.parseInt(properties.getProperty("server.port"));
 		workerThreads = Integer.parseInt(properties.getProperty("server.workerThreads"));
+		executorType = properties.getProperty("server.executor", "pool").trim();
+		maxQueuedConnections = Integer.parseInt(properties.getProperty("server.maxQueuedConnections", "1000").trim());
+		maxInFlight = Integer.parseInt(properties.getProperty("server.maxInFlight", "0").trim());
+		int retryAfter = Integer.parseInt(properties.getProperty("server.retryAfter", "1").trim());
+		serviceUnavailable = (
+			"HTTP/1.1 503 Service Unavailable\r\n" +
+			"Server: simple java server\r\n" +
+			"Retry-After: " + retryAfter + "\r\n" +
+			"Content-Length: 0\r\n" +
+			"Connection: close\r\n" +
+			"\r\n"
+		).getBytes(StandardCharsets.US_ASCII);
+		keepAliveTimeout = Integer.parseInt(properties.getProperty("server.keepAliveTimeout", "5").trim());
+		maxKeepAliveRequests = Integer.parseInt(properties.getProperty("server.maxKeepAliveRequests", "100").trim());
+		headerReadTimeout = Integer.parseInt(properties.getProperty("server.headerReadTimeout", "10").trim());
+		writeTimeout = Integer.parseInt(properties.getProperty("server.writeTimeout", "30").trim());
+		responseBufferSize = Integer.parseInt(properties.getProperty("server.responseBufferSize", "8192").trim());
+		compression = Boolean.parseBoolean(properties.getProperty("server.compression", "false").trim());
+		compressionMinSize = Integer.parseInt(properties.getProperty("server.compressionMinSize", "1024").trim());
+		selectorMode = properties.getProperty("server.ioMode", "blocking").trim().equals("selector");
+		selectorThreads = Integer.parseInt(properties.getProperty("server.selectorThreads", "1").trim());
+		acceptorThreads = Math.max(1, Integer.parseInt(properties.getProperty("server.acceptorThreads", "1").trim()));
+		bufferPool = new BufferPool(
+			Integer.parseInt(properties.getProperty("server.bufferPoolSize", "256").trim()),
+			Boolean.parseBoolean(properties.getProperty("server.bufferPoolDebug", "false").trim())
+		);
 		documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
 		getMimeTypes(properties.getProperty("server.mimeConfig"));
+		fileCache = new StaticFileCache(
+			Long.parseLong(properties.getProperty("server.fileCacheSize", "0").trim()),
+			Long.parseLong(properties.getProperty("server.fileCacheMaxFileSize", "1048576").trim()),
+			Long.parseLong(properties.getProperty("server.fileCacheCheckInterval", "1000").trim())
+		);
 		sessionTimeout = Integer.parseInt(properties.getProperty("session.timeout"));
+		if(properties.getProperty("session.store", "heap").trim().equals("offheap")){
+			sessions = new OffHeapSessionStore(sessionTimeout * 1000L);
+		}
+		else{
+			sessions = new ConcurrentSessionStore(sessionTimeout * 1000L);
+		}
+		String journalPath = properties.getProperty("session.journal", "").trim();
+		if(!journalPath.isEmpty()){
+			sessionJournal = new SessionJournal(Paths.get(journalPath), sessions);
+			sessionJournal.open();
+			// a regular shutdown, e.g. for a deploy, must not lose the last batch of changes
+			Runtime.getRuntime().addShutdownHook(new Thread(sessionJournal::close, "session-journal-close"));
+		}
+		String replicationPort = properties.getProperty("session.replication.port", "").trim();
+		List<InetSocketAddress> replicationPeers = SessionReplicator.parsePeers(properties.getProperty("session.replication.peers", ""));
+		if(!replicationPort.isEmpty() || !replicationPeers.isEmpty()){
+			String replicationAddress = properties.getProperty("session.replication.address", "").trim();
+			sessionReplicator = new SessionReplicator(
+				sessions,
+				replicationPort.isEmpty() ? null : new InetSocketAddress(
+					replicationAddress.isEmpty() ? address : replicationAddress, Integer.parseInt(replicationPort)
+				),
+				replicationPeers,
+				properties.getProperty("session.replication.secret", "").trim()
+			);
+			sessionReplicator.start();
+		}
 		getWorkersMap(properties.getProperty("server.workers"));
 	}
 
 	/**
-	 * Starts the server thread.
+	 * Starts the server threads.
 	 */
 	protected synchronized void start() {
-		if(!serverThread.isAlive()){
-			serverThread.start(); // start server thread if not already running
-			threadPool = Executors.newFixedThreadPool(workerThreads); //init threadpool
+		if(acceptors == null || !acceptors[0].isAlive()){
+			ServerSocketChannel[] listeners;
+			try {
+				listeners = openListeners();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			threadPool = createExecutor(); //init threadpool
+			deadlineTimer = new HashedWheelTimer(DEADLINE_TICK, DEADLINE_WHEEL_SIZE);
+			if(selectorMode){
+				selectorLoops = new SelectorThread[selectorThreads];
+				for(int i = 0; i < selectorThreads; i++){
+					try {
+						selectorLoops[i] = new SelectorThread(i);
+					} catch (IOException e) {
+						e.printStackTrace();
+						return;
+					}
+					selectorLoops[i].start();
+				}
+			}
+			acceptors = new ServerThread[acceptorThreads];
+			for(int i = 0; i < acceptorThreads; i++){
+				acceptors[i] = new ServerThread(i, listeners[i]);
+				acceptors[i].start(); // start server thread if not already running
+			}
 			
-			final Timer timer = new Timer();
-			timer.schedule(killSessions, 300*1000, 300*1000);
+			// a daemon timer, so the JVM can exit after stop()
+			maintenanceTimer = new Timer("server-maintenance", true);
+			maintenanceTimer.schedule(killSessions, SESSION_REAP_INTERVAL, SESSION_REAP_INTERVAL);
+			maintenanceTimer.schedule(reportShed, SHED_REPORT_INTERVAL, SHED_REPORT_INTERVAL);
 		}
 	}
 
@@ -175,8 +414,153 @@ public class SmartHttpServer {
 	 * Stops the server thread.
 	 */
 	protected synchronized void stop() {
-		serverThread.interrupt(); // â€¦ signal server thread to stop running â€¦
+		for(ServerThread acceptor : acceptors){
+			acceptor.interrupt(); // â€¦ signal server thread to stop running â€¦
+		}
+		if(selectorLoops != null){
+			for(SelectorThread loop : selectorLoops){
+				loop.interrupt();
+			}
+		}
 		threadPool.shutdown(); // â€¦ shutdown threadpool â€¦
+		deadlineTimer.stop();
+		maintenanceTimer.cancel();
+		if(sessionReplicator != null){
+			sessionReplicator.close();
+		}
+		if(sessionJournal != null){
+			sessionJournal.close();
+		}
+	}
+
+	/**
+	 * Creates the executor which runs {@link ClientWorker}s. With the <code>virtual</code> executor
+	 * every worker gets its own virtual thread, so blocking I/O does not limit the number of
+	 * concurrently served connections. Virtual threads are looked up reflectively so the server
+	 * still runs on older Java versions, where the fixed thread pool is used instead. Connections wait for
+	 * a thread of the pool in a queue of at most {@link #maxQueuedConnections} connections.
+	 * @return New executor.
+	 */
+	private ExecutorService createExecutor() {
+		if(executorType.equals("virtual")){
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads are not supported, using a pool of " + workerThreads + " threads.");
+			}
+		}
+		return new ThreadPoolExecutor(
+			workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+			maxQueuedConnections > 0 ? new ArrayBlockingQueue<Runnable>(maxQueuedConnections) : new LinkedBlockingQueue<Runnable>()
+		);
+	}
+	
+	/**
+	 * Opens one listener for every acceptor thread. Listeners share the port using <code>SO_REUSEPORT</code>,
+	 * so the kernel spreads new connections among them. The option is looked up reflectively because it is
+	 * not available before Java 9, and where it is not supported all acceptors share one listener.
+	 * @return Listener of every acceptor thread.
+	 * @throws IOException If a listener can not be opened.
+	 */
+	@SuppressWarnings("unchecked")
+	private ServerSocketChannel[] openListeners() throws IOException {
+		ServerSocketChannel[] listeners = new ServerSocketChannel[acceptorThreads];
+		SocketOption<Boolean> reusePort = null;
+		for(int i = 0; i < acceptorThreads; i++){
+			if(i > 0 && reusePort == null){
+				listeners[i] = listeners[0];
+				continue;
+			}
+			ServerSocketChannel listener = ServerSocketChannel.open(); // open serverSocket on specified port
+			if(i == 0 && acceptorThreads > 1){
+				try {
+					reusePort = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+					listener.setOption(reusePort, true);
+				} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+					reusePort = null;
+					System.err.println("SO_REUSEPORT is not supported, " + acceptorThreads + " acceptors share one listener.");
+				}
+			}
+			else if(reusePort != null){
+				listener.setOption(reusePort, true);
+			}
+			listener.bind(new InetSocketAddress((InetAddress)null, port));
+			listeners[i] = listener;
+		}
+		return listeners;
+	}
+	
+	/**
+	 * Fetches the number of connections accepted by every acceptor thread.
+	 * @return Number of accepted connections, one element per acceptor thread.
+	 */
+	public long[] getAcceptedConnections() {
+		long[] accepted = new long[acceptorThreads];
+		for(int i = 0; acceptors != null && i < acceptors.length; i++){
+			accepted[i] = acceptors[i].accepted.get();
+		}
+		return accepted;
+	}
+	
+	/**
+	 * Gives the given worker to {@link #threadPool}, unless the server is overloaded: if there are
+	 * already {@link #maxInFlight} connections in flight or the queue of the pool is full, the connection
+	 * is rejected right away.
+	 * @param worker Worker of the connection.
+	 */
+	private void dispatch(ClientWorker worker) {
+		if(inFlight.incrementAndGet() > maxInFlight && maxInFlight > 0){
+			inFlight.decrementAndGet();
+			worker.reject();
+			return;
+		}
+		try {
+			threadPool.execute(worker);
+		} catch (RejectedExecutionException e) {
+			inFlight.decrementAndGet();
+			worker.reject();
+		}
+	}
+	
+	/**
+	 * Fetches the number of connections rejected because the server was overloaded.
+	 * @return Number of rejected connections since the server started.
+	 */
+	public long getShedConnections() {
+		return shedConnections.get();
+	}
+	
+	/**
+	 * Fetches the number of connections which are served or wait to be served.
+	 * @return Number of connections in flight.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * Fetches the number of sessions which were removed because they expired. Sessions which are
+	 * found expired on access are not counted.
+	 * @return Number of expired sessions.
+	 */
+	public long getExpiredSessions() {
+		return expiredSessions.get();
+	}
+	
+	/**
+	 * Fetches the total time spent removing expired sessions.
+	 * @return Time in nanoseconds.
+	 */
+	public long getSessionReapTime() {
+		return reapTime.get();
+	}
+	
+	/**
+	 * Fetches the time spent in the last removal of expired sessions.
+	 * @return Time in nanoseconds.
+	 */
+	public long getLastSessionReapTime() {
+		return lastReapTime;
 	}
 
 	/**
@@ -195,7 +579,8 @@ public class SmartHttpServer {
 	}
 	
 	/**
-	 * Loads the map of workers.
+	 * Loads the routes of workers. Keys of the file are path patterns, which may contain path variables
+	 * and a final wildcard as described in {@link Router}.
 	 * @param workersPath Path to a file with workers configurations.
 	 * @throws FileNotFoundException FileNotFoundException
 	 * @throws IOException If an IO Error occurs.
@@ -214,7 +599,7 @@ public class SmartHttpServer {
 			Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
 			Object newObject = referenceToClass.newInstance();
 			IWebWorker iww = (IWebWorker)newObject;
-			workersMap.put(path, iww);
+			workerRoutes.add(path, iww);
 		}
 	}
 	
@@ -225,277 +610,1041 @@ public class SmartHttpServer {
 	 */
 	protected class ServerThread extends Thread {
 		/**
-		 * Server socket used for running a server.
+		 * Server socket channel used for running a server.
+		 */
+		ServerSocketChannel serverChannel;
+		/**
+		 * Index of the {@link SelectorThread} which gets the next accepted connection.
+		 */
+		private int nextLoop;
+		/**
+		 * Number of connections accepted by this thread.
+		 */
+		private AtomicLong accepted = new AtomicLong();
+		
+		/**
+		 * Creates a new {@link ServerThread}.
+		 * @param index Index of this acceptor.
+		 * @param serverChannel Bound listener from which connections are accepted.
 		 */
-		ServerSocket serverSocket;
+		public ServerThread(int index, ServerSocketChannel serverChannel) {
+			super("acceptor-" + index);
+			this.serverChannel = serverChannel;
+			// acceptors start with different event loops
+			this.nextLoop = index % Math.max(1, selectorThreads);
+		}
 		
 		@Override
 		public void run() {			
-			try {
-				serverSocket = new ServerSocket(); // open serverSocket on specified port
-				serverSocket.bind(new InetSocketAddress((InetAddress)null, port)); 
-			} catch (IOException e) {e.printStackTrace();}
-			
 			while(true) {
-				Socket client = null;
+				SocketChannel client = null;
 				
 				try {
-					client = serverSocket.accept();
-				} catch (IOException e) {e.printStackTrace();}
+					client = serverChannel.accept();
+					accepted.incrementAndGet();
+					// responses are buffered by the server, so small writes need not wait for acknowledgements
+					client.socket().setTcpNoDelay(true);
+				} catch (ClosedChannelException e) {
+					return;
+				} catch (IOException e) {
+					e.printStackTrace();
+					continue;
+				}
 				
-				ClientWorker cw = new ClientWorker(client);
-				threadPool.submit(cw); // submit cw to threadpool for execution
+				if(selectorMode){
+					// hand the connection to an event loop which reads its header without blocking
+					selectorLoops[nextLoop].register(client);
+					nextLoop = (nextLoop + 1) % selectorLoops.length;
+				}
+				else{
+					ClientWorker cw = new ClientWorker(client.socket());
+					dispatch(cw); // submit cw to threadpool for execution
+				}
 			}
 		}
 		@Override
 		public void interrupt() {
 			try {
-				serverSocket.close();
+				serverChannel.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
-
+	
 	/**
-	 * This thread represents a client worker of this server.
+	 * Represents an event loop which reads request headers from non-blocking connections. Once the
+	 * complete header of a connection is read, the connection is switched back to blocking mode and
+	 * given to a {@link ClientWorker}, so slow or idle clients never occupy a worker thread.
 	 * @author Mislav Gillinger
 	 * @version 1.0
 	 */
-	private class ClientWorker implements Runnable {
-		
-		/**
-		 * Client socket.
-		 */
-		private Socket csocket;
-		/**
-		 * Input stream.
-		 */
-		private PushbackInputStream istream;
-		/**
-		 * Output stream.
-		 */
-		private OutputStream ostream;
+	protected class SelectorThread extends Thread {
 		/**
-		 * HTTP version.
+		 * Selector which watches registered connections.
 		 */
-		private String version;
+		private Selector selector;
 		/**
-		 * HTTP method.
+		 * Connections which are not registered yet.
 		 */
-		private String method;
+		private Queue<Connection> pending = new ConcurrentLinkedQueue<>();
 		/**
-		 * Program parameters, given through URL.
+		 * Keys whose header was read during the current iteration.
 		 */
-		private Map<String, String> params = new HashMap<String, String>();
+		private List<SelectionKey> completed = new ArrayList<>();
 		/**
-		 * Permanent parameters.
+		 * Connections whose deadline expired.
 		 */
-		private Map<String, String> permPrams = null;
+		private Queue<Connection> expired = new ConcurrentLinkedQueue<>();
+		
 		/**
-		 * Output cookies.
+		 * Creates a new {@link SelectorThread}.
+		 * @param index Index of this event loop.
+		 * @throws IOException If selector can not be opened.
 		 */
-		private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+		public SelectorThread(int index) throws IOException {
+			super("selector-" + index);
+			selector = Selector.open();
+		}
+		
 		/**
-		 * Session ID is a string containing 20 upper case random letters.
+		 * Registers a new connection with this event loop.
+		 * @param channel Accepted connection.
 		 */
-		private String SID;
-
+		public void register(SocketChannel channel) {
+			register(new Connection(channel, 0));
+		}
+		
 		/**
-		 * Creates a new {@link ClientWorker}.
-		 * @param csocket Client socket.
+		 * Registers a connection with this event loop.
+		 * @param connection Connection to register.
 		 */
-		public ClientWorker(Socket csocket) {
-			super();
-			this.csocket = csocket;
+		public void register(Connection connection) {
+			pending.add(connection);
+			selector.wakeup();
 		}
-
+		
 		@Override
 		public void run() {
-			try{
-				// obtain input stream from socket and wrap it to pushback input stream
-				istream = new PushbackInputStream(csocket.getInputStream());
-				// obtain output stream from socket
-				ostream = new BufferedOutputStream(csocket.getOutputStream());
-				
-				// Then read complete request header from your client in separate method...
-				List<String> request = readRequest();
-			
-				// If header is invalid (less then a line at least) return response status 400
-				if(request.isEmpty() || request.get(0).split(" ").length != 3){
-					sendError(ostream, 400, "Bad request");
+			while(selector.isOpen()){
+				try {
+					selector.select(1000);
+					registerPending();
+					
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while(it.hasNext()){
+						SelectionKey key = it.next();
+						it.remove();
+						if(key.isValid() && key.isReadable()){
+							readHeader(key);
+						}
+					}
+					dispatchCompleted();
+					closeExpired();
+				} catch (ClosedSelectorException e) {
 					return;
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-			
-				String[] firstLine = request.get(0).split(" ");
+			}
+		}
 		
-				// Extract (method, requestedPath, version) from firstLine
-				method = firstLine[0].toUpperCase();
-				// if method not GET or version not HTTP/1.0 or HTTP/1.1 return response status 400
-				if(!method.equals("GET")) {
-					sendError(ostream, 400, "Method Not Allowed");
-					return;
-				}
-			
-				String requestedPath = firstLine[1];
-				
-				version = firstLine[2].toUpperCase();
-				if(!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1")) {
-					sendError(ostream, 400, "HTTP Version Not Supported");
-					return;
+		/**
+		 * Registers all pending connections with the selector.
+		 */
+		private void registerPending() {
+			Connection connection;
+			while((connection = pending.poll()) != null){
+				try {
+					connection.channel.configureBlocking(false);
+					connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch (IOException e) {
+					close(connection);
+					continue;
 				}
-			
-				if(request.get(0).contains("favicon")) return;
-				checkSession(request);
-			
-				// (path, paramString) = split requestedPath to path and parameterString
-				String path = requestedPath.split("\\?")[0];
-			
-				if(requestedPath.split("\\?").length != 1){
-					String paramString = requestedPath.split("\\?")[1];
-					parseParameters(paramString); //==> your method to fill map parameters
+				connection.buffer = bufferPool.acquire(MAX_HEADER_SIZE);
+				connection.buffer.limit(MAX_HEADER_SIZE);
+				// a kept alive connection may be idle before it starts sending the next header
+				schedule(connection, connection.idle ? keepAliveTimeout : headerReadTimeout);
+			}
+		}
+		
+		/**
+		 * Reads available bytes of a connection and checks whether its header is complete.
+		 * @param key Key of a readable connection.
+		 */
+		private void readHeader(SelectionKey key) {
+			Connection connection = (Connection) key.attachment();
+			ByteBuffer buffer = connection.buffer;
+			int from = Math.max(0, buffer.position() - 3);
+			int read;
+			try {
+				read = connection.channel.read(buffer);
+			} catch (IOException e) {
+				read = -1;
+			}
+			if(read == -1){
+				key.cancel();
+				close(connection);
+				return;
+			}
+			if(connection.idle && read > 0){
+				connection.idle = false;
+				if(!connection.deadline.cancel()) return;
+				schedule(connection, headerReadTimeout);
+			}
+			if(headerEnds(buffer, from)){
+				key.cancel();
+				// the deadline may have expired just before the header was completed
+				if(connection.deadline.cancel()){
+					completed.add(key);
 				}
-			
-				// requestedPath = resolve path with respect to documentRoot
-				Path resolvedPath = Paths.get(documentRoot + path);
-				
-				// if requestedPath is not below documentRoot, return response status 403 forbidden
-				if(!resolvedPath.toString().contains(documentRoot.toString())){
-					sendError(ostream, 403, "Forbidden");
-					return;
+			}
+			else if(!buffer.hasRemaining()){
+				// header is too large
+				key.cancel();
+				close(connection);
+			}
+		}
+		
+		/**
+		 * Gives connections with a complete header to {@link ClientWorker}s.
+		 * @throws IOException If selector fails.
+		 */
+		private void dispatchCompleted() throws IOException {
+			if(completed.isEmpty()) return;
+			// deregister cancelled keys so channels can go back to blocking mode
+			selector.selectNow();
+			for(SelectionKey key : completed){
+				Connection connection = (Connection) key.attachment();
+				try {
+					connection.channel.configureBlocking(true);
+				} catch (IOException e) {
+					close(connection);
+					continue;
 				}
-			
-				if(path.startsWith("/ext/")){
-					String pathToClass = "hr.fer.zemris.java.webserver.workers.";
-					String pathPart = path.split("\\?")[0];
-					pathToClass += pathPart.substring(pathPart.lastIndexOf('/') + 1);
-					Class<?> referenceToClass = null;
-					try {
-						referenceToClass = this.getClass().getClassLoader().loadClass(pathToClass);
-					} catch (ClassNotFoundException e) {
-						e.printStackTrace();
+				// the worker gives the buffer back once it copies the header
+				connection.buffer.flip();
+				dispatch(new ClientWorker(connection.channel.socket(), connection.buffer, connection.served));
+			}
+			completed.clear();
+		}
+		
+		/**
+		 * Starts the deadline of the given connection.
+		 * @param connection Connection waiting for its header.
+		 * @param timeout Time in seconds in which the connection has to send its header.
+		 */
+		private void schedule(Connection connection, int timeout) {
+			connection.deadline = deadlineTimer.schedule(() -> {
+				expired.add(connection);
+				selector.wakeup();
+			}, timeout * 1000L);
+		}
+		
+		/**
+		 * Closes connections which did not send their header before their deadline.
+		 */
+		private void closeExpired() {
+			Connection connection;
+			while((connection = expired.poll()) != null){
+				if(connection.key != null){
+					connection.key.cancel();
+				}
+				close(connection);
+			}
+		}
+		
+		/**
+		 * Closes the given connection and gives its buffer back to the pool.
+		 * @param connection Connection to close.
+		 */
+		private void close(Connection connection) {
+			if(connection.deadline != null){
+				connection.deadline.cancel();
+			}
+			closeQuietly(connection.channel);
+			if(connection.buffer != null){
+				bufferPool.release(connection.buffer);
+				connection.buffer = null;
+			}
+		}
+		
+		@Override
+		public void interrupt() {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Represents a connection watched by a {@link SelectorThread}.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private static class Connection {
+		/**
+		 * Channel of the connection.
+		 */
+		SocketChannel channel;
+		/**
+		 * Buffer which holds the request header read so far, leased once the connection is registered.
+		 */
+		ByteBuffer buffer;
+		/**
+		 * Number of requests already served on this connection.
+		 */
+		int served;
+		/**
+		 * Says whether the kept alive connection did not start sending its next request yet.
+		 */
+		boolean idle;
+		/**
+		 * Key of the connection in the selector.
+		 */
+		SelectionKey key;
+		/**
+		 * Deadline of the header of the connection.
+		 */
+		HashedWheelTimer.Timeout deadline;
+		
+		/**
+		 * Creates a new {@link Connection}.
+		 * @param channel Channel of the connection.
+		 * @param served Number of requests already served on this connection.
+		 */
+		public Connection(SocketChannel channel, int served) {
+			this.channel = channel;
+			this.served = served;
+			this.idle = served > 0;
+		}
+	}
+	
+	/**
+	 * Checks whether the given buffer contains the end of a request header (an empty line).
+	 * @param buffer Buffer in write mode.
+	 * @param from Position from which the search starts.
+	 * @return <code>true</code> if the header end is found, <code>false</code> otherwise.
+	 */
+	private static boolean headerEnds(ByteBuffer buffer, int from) {
+		for(int i = from, end = buffer.position(); i < end; i++){
+			if(buffer.get(i) != 10) continue;
+			if(i >= 1 && buffer.get(i-1) == 10) return true;
+			if(i >= 3 && buffer.get(i-1) == 13 && buffer.get(i-2) == 10 && buffer.get(i-3) == 13) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes the given connection, ignoring errors.
+	 * @param channel Connection to close.
+	 */
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * This thread represents a client worker of this server.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	private class ClientWorker implements Runnable {
+		
+		/**
+		 * Client socket.
+		 */
+		private Socket csocket;
+		/**
+		 * Parser of requests read from the client socket.
+		 */
+		private HttpRequestParser parser;
+		/**
+		 * Output stream.
+		 */
+		private ChannelOutputStream ostream;
+		/**
+		 * HTTP version.
+		 */
+		private String version;
+		/**
+		 * HTTP method.
+		 */
+		private String method;
+		/**
+		 * Program parameters, given through URL.
+		 */
+		private Map<String, String> params = new HashMap<String, String>();
+		/**
+		 * Permanent parameters.
+		 */
+		private Map<String, String> permPrams = null;
+		/**
+		 * Output cookies.
+		 */
+		private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+		/**
+		 * Session ID is a string containing 20 upper case random letters.
+		 */
+		private String SID;
+		/**
+		 * Leased buffer with bytes of the request which were already read from {@link #csocket}, or <code>null</code>.
+		 */
+		private ByteBuffer prefetched;
+		/**
+		 * Number of requests served on this connection.
+		 */
+		private int served;
+		/**
+		 * Says whether the connection stays open after the current response.
+		 */
+		private boolean keepAlive;
+		/**
+		 * Content coding accepted by the client for the current response, or <code>null</code>.
+		 */
+		private String contentCoding;
+		/**
+		 * Says whether the connection was closed because it missed a deadline.
+		 */
+		private volatile boolean expired;
+		/**
+		 * Current read or write deadline of the connection.
+		 */
+		private HashedWheelTimer.Timeout deadline;
+		/**
+		 * Context of the response of an asynchronous worker which is not finished yet, or <code>null</code>.
+		 */
+		private RequestContext asyncContext;
+		/**
+		 * Stage of the asynchronous worker which writes {@link #asyncContext}, or <code>null</code>.
+		 */
+		private volatile CompletionStage<Void> asyncStage;
+		/**
+		 * Error with which {@link #asyncStage} completed, or <code>null</code>.
+		 */
+		private Throwable asyncError;
+		/**
+		 * Task which closes the connection when it misses a deadline.
+		 */
+		private Runnable expire = () -> {
+			expired = true;
+			closeQuietly(csocket.getChannel());
+			// a suspended worker would otherwise wait for its asynchronous worker forever
+			CompletionStage<Void> stage = asyncStage;
+			if(stage != null){
+				try {
+					stage.toCompletableFuture().completeExceptionally(new TimeoutException("Response deadline expired."));
+				} catch (UnsupportedOperationException ignorable) {
+				}
+			}
+		};
+
+		/**
+		 * Creates a new {@link ClientWorker}.
+		 * @param csocket Client socket.
+		 */
+		public ClientWorker(Socket csocket) {
+			this(csocket, null, 0);
+		}
+		
+		/**
+		 * Creates a new {@link ClientWorker} for a connection whose request header was already read.
+		 * @param csocket Client socket.
+		 * @param prefetched Leased buffer, in read mode, with bytes of the request which were already read from
+		 * given socket. The worker gives it back to {@link #bufferPool}.
+		 * @param served Number of requests already served on given socket.
+		 */
+		public ClientWorker(Socket csocket, ByteBuffer prefetched, int served) {
+			super();
+			this.csocket = csocket;
+			this.prefetched = prefetched;
+			this.served = served;
+		}
+
+		@Override
+		public void run() {
+			boolean handedOff = false;
+			boolean suspended = false;
+			try{
+				if(parser == null){
+					// requests are parsed from the socket's input stream, after bytes which were already read
+					parser = new HttpRequestParser(csocket.getInputStream(), MAX_HEADER_SIZE);
+					if(prefetched != null){
+						try {
+							parser.prefill(prefetched);
+						} finally {
+							bufferPool.release(prefetched);
+							prefetched = null;
+						}
+					}
+					// responses are written through a pooled direct buffer
+					ostream = new ChannelOutputStream(csocket.getChannel(), bufferPool, OUTPUT_BUFFER_SIZE);
+				}
+				
+				while(true){
+					boolean persistent, pipelined;
+					if(asyncContext != null){
+						// worker is run again once the asynchronous worker completed its response
+						persistent = finishAsync();
+					}
+					else{
+						// a new connection has to send its header in time, while a kept alive one may first be
+						// idle for keepAliveTimeout, which is enforced by the socket timeout
+						deadline = served == 0 ? deadlineTimer.schedule(expire, headerReadTimeout * 1000L) : null;
+						HttpRequest request;
+						try {
+							if(!parser.awaitInput()) break;
+							if(deadline == null){
+								deadline = deadlineTimer.schedule(expire, headerReadTimeout * 1000L);
+							}
+							// Then read complete request header from your client in separate method...
+							request = parser.next();
+						} finally {
+							// an idle or aborted connection must not leave its deadline in the timer
+							if(deadline != null){
+								deadline.cancel();
+							}
+						}
+						if(request == null) break;
+						
+						served++;
+						deadline = deadlineTimer.schedule(expire, writeTimeout * 1000L);
+						try {
+							persistent = serve(request);
+						} catch (IOException | RuntimeException e) {
+							deadline.cancel();
+							throw e;
+						}
+						if(asyncStage != null){
+							// the write deadline keeps running while the thread is free
+							suspended = true;
+							break;
+						}
 					}
-					Object newObject = null;
 					try {
-						newObject = referenceToClass.newInstance();
-					} catch (InstantiationException | IllegalAccessException e) {
-						e.printStackTrace();
+						// responses to pipelined requests which already arrived are flushed together
+						pipelined = persistent && parser.available() > 0;
+						if(!pipelined){
+							// the connection holds no buffer while it waits for the next request
+							ostream.release();
+						}
+					} finally {
+						deadline.cancel();
 					}
-					IWebWorker iww = (IWebWorker)newObject;
-					RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
-					iww.processRequest(rc);
-			
-					ostream.flush();					
-					csocket.close();
-					return;
+					if(!persistent) break;
+					if(pipelined) continue;
+					
+					if(selectorMode){
+						// wait for the next request in an event loop instead of in this thread
+						selectorLoops[served % selectorLoops.length].register(
+							new Connection(csocket.getChannel(), served)
+						);
+						handedOff = true;
+						break;
+					}
+					csocket.setSoTimeout(keepAliveTimeout * 1000);
 				}
-			
-				IWebWorker potentialWorker = workersMap.get(path);
-				if(potentialWorker != null){
-					RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
-					potentialWorker.processRequest(rc);
-				
-					ostream.flush();
-					csocket.close();
-					return;
+			}catch(SocketTimeoutException e){
+				// kept alive connection was idle for too long
+			}catch(IOException e){
+				if(!expired){
+					e.printStackTrace();
 				}
-			
-				String extension = null;
-				// check if requestedPath exists, is file and is readable; if not, return status 404
-				if(!Files.exists(resolvedPath) || !Files.isReadable(resolvedPath)){
-					sendError(ostream, 404, "Path doesn't exist or is not readable");
-					return;
+			}finally{
+				if(suspended){
+					suspend();
 				}
-				// else extract file extension
 				else{
-					extension = resolvedPath.toString().substring(resolvedPath.toString().lastIndexOf('.')+1);
+					if(!handedOff){
+						// the stream is not created if the connection failed before the first request
+						if(ostream != null){
+							try {
+								ostream.release();
+							} catch (IOException ignorable) {
+							}
+						}
+						closeQuietly(csocket.getChannel());
+					}
+					inFlight.decrementAndGet();
 				}
+			}
+		}
+		
+		/**
+		 * Waits for the asynchronous worker without occupying the thread. Once its stage completes,
+		 * this worker runs again to finish the response and continue with the connection.
+		 */
+		private void suspend() {
+			asyncStage.whenComplete((result, error) -> {
+				asyncError = error;
+				try {
+					threadPool.execute(this);
+				} catch (RejectedExecutionException e) {
+					if(threadPool.isShutdown()){
+						closeQuietly(csocket.getChannel());
+						inFlight.decrementAndGet();
+						return;
+					}
+					// the queue is full, but the request was already admitted, so its response is
+					// finished on the completing thread instead of being dropped
+					finishAndClose();
+				}
+			});
+		}
+		
+		/**
+		 * Finishes the response of the asynchronous worker and closes the connection. Used on a thread which
+		 * completed the stage and is shared by other responses, so the connection is not served further.
+		 */
+		private void finishAndClose() {
+			try {
+				finishAsync();
+				ostream.release();
+			} catch (IOException e) {
+				if(!expired){
+					e.printStackTrace();
+				}
+			} finally {
+				deadline.cancel();
+				try {
+					ostream.release();
+				} catch (IOException ignorable) {
+				}
+				closeQuietly(csocket.getChannel());
+				inFlight.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Finishes the response of the asynchronous worker whose stage completed. If the connection missed
+		 * its deadline, the response is aborted instead.
+		 * @return <code>true</code> if the connection can be used for the next request, <code>false</code> otherwise.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private boolean finishAsync() throws IOException {
+			RequestContext rc = asyncContext;
+			Throwable error = asyncError;
+			asyncContext = null;
+			asyncStage = null;
+			asyncError = null;
+			if(expired){
+				// the asynchronous worker may still write until it completes its stage itself, and its
+				// writes must not reach the buffer which is released once this method returns
+				rc.abort();
+				return false;
+			}
+			if(error != null){
+				error.printStackTrace();
+				// a response which was already started can not be corrected
+				if(rc.getHeadreGenerated()) return false;
+				rc.setStatusCode(500);
+				rc.setStatusText("Internal Server Error");
+			}
+			rc.finish();
+			return rc.isKeepAlive();
+		}
+		
+		/**
+		 * Runs the given worker. An asynchronous worker is only started, and its response is finished
+		 * once its stage completes.
+		 * @param worker Worker to run.
+		 * @param rc Context of the response.
+		 * @return <code>true</code> if the connection can be used for the next request, <code>false</code> otherwise.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private boolean process(IWebWorker worker, RequestContext rc) throws IOException {
+			if(worker instanceof IAsyncWebWorker){
+				asyncContext = rc;
+				asyncStage = ((IAsyncWebWorker) worker).processRequestAsync(rc);
+				return true;
+			}
+			worker.processRequest(rc);
+			rc.finish();
+			return rc.isKeepAlive();
+		}
+		
+		/**
+		 * Rejects the connection of this worker with {@link #serviceUnavailable} without serving it.
+		 */
+		public void reject() {
+			shedConnections.incrementAndGet();
+			if(prefetched != null){
+				bufferPool.release(prefetched);
+				prefetched = null;
+			}
+			try {
+				csocket.getChannel().write(ByteBuffer.wrap(serviceUnavailable));
+			} catch (IOException ignorable) {
+			}
+			closeQuietly(csocket.getChannel());
+		}
+		
+		/**
+		 * Serves one request.
+		 * @param request Parsed request.
+		 * @return <code>true</code> if the connection can be used for the next request, <code>false</code> otherwise.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private boolean serve(HttpRequest request) throws IOException {
+			params = new HashMap<String, String>();
+			outputCookies = new ArrayList<RequestContext.RCCookie>();
+			permPrams = null;
+			SID = null;
 			
-				// find in mimeTypes map appropriate mimeType for current file extension
-				// (you filled that map during the construction of SmartHttpServer from mime.properties)
-				String mimeType = mimeTypes.get(extension);
+			// If header is invalid (less then a line at least) return response status 400
+			if(!request.isValid()){
+				sendError(ostream, 400, "Bad request");
+				return false;
+			}
+	
+			// Extract (method, requestedPath, version) from firstLine
+			method = request.getMethod();
+			// if method not GET or version not HTTP/1.0 or HTTP/1.1 return response status 400
+			if(!method.equals("GET")) {
+				sendError(ostream, 400, "Method Not Allowed");
+				return false;
+			}
+		
+			String requestedPath = request.getTarget();
 			
-				// if no mime type found, assume application/octet-stream
-				if(mimeType == null){
-					mimeType = "application/octet-stream";
-				}
+			version = request.getVersion();
+			if(!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1")) {
+				sendError(ostream, 400, "HTTP Version Not Supported");
+				return false;
+			}
+			keepAlive = served < maxKeepAliveRequests && isPersistent(request);
+			contentCoding = negotiateCoding(request.getHeader("Accept-Encoding"));
+		
+			if(requestedPath.contains("favicon")) return false;
+			checkSession(request);
+		
+			// (path, paramString) = split requestedPath to path and parameterString
+			int question = requestedPath.indexOf('?');
+			String path = question == -1 ? requestedPath : requestedPath.substring(0, question);
+		
+			if(question != -1 && question < requestedPath.length() - 1){
+				String paramString = requestedPath.substring(question + 1);
+				parseParameters(paramString); //==> your method to fill map parameters
+			}
+		
+			// requestedPath = resolve path with respect to documentRoot
+			Path resolvedPath = Paths.get(documentRoot + path);
 			
-				// create a rc = new RequestContext(...); set mime-type; set status to 200
-				RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
-				rc.setMimeType(mimeType);
-				rc.setStatusCode(200);
-				
-				// If you want, you can modify RequestContext to allow you to add additional headers
-				// so that you can add â€œContent-Length: 12345â€� if you know that file has 12345 bytes
+			// if requestedPath is not below documentRoot, return response status 403 forbidden
+			if(!resolvedPath.toString().contains(documentRoot.toString())){
+				sendError(ostream, 403, "Forbidden");
+				return false;
+			}
+		
+			if(path.startsWith("/ext/")){
+				IWebWorker iww = extWorkers.get(path.substring(path.lastIndexOf('/') + 1));
+				if(iww == null){
+					sendError(ostream, 404, "Worker doesn't exist");
+					return false;
+				}
+				RequestContext rc = createContext();
+				return process(iww, rc);
+			}
+		
+			Router.Match<IWebWorker> route = workerRoutes.match(path);
+			if(route != null){
+				RequestContext rc = createContext();
+				rc.setPathVariables(route.getVariables());
+				return process(route.getValue(), rc);
+			}
+		
+			String extension = resolvedPath.toString().substring(resolvedPath.toString().lastIndexOf('.')+1);
+			// cached files do not need to be checked again
+			StaticFileCache.Entry cached = extension.equals("smscr") ? null : fileCache.get(resolvedPath);
 			
+			// check if requestedPath exists, is file and is readable; if not, return status 404
+			if(cached == null && (!Files.exists(resolvedPath) || !Files.isReadable(resolvedPath))){
+				sendError(ostream, 404, "Path doesn't exist or is not readable");
+				return false;
+			}
+		
+			// find in mimeTypes map appropriate mimeType for current file extension
+			// (you filled that map during the construction of SmartHttpServer from mime.properties)
+			String mimeType = mimeTypes.get(extension);
+		
+			// if no mime type found, assume application/octet-stream
+			if(mimeType == null){
+				mimeType = "application/octet-stream";
+			}
+		
+			// create a rc = new RequestContext(...); set mime-type; set status to 200
+			RequestContext rc = createContext();
+			rc.setMimeType(mimeType);
+			rc.setStatusCode(200);
+		
+			if(extension.equals("smscr")){
+				String documentBody = null;
+				documentBody = new String(Files.readAllBytes(resolvedPath), StandardCharsets.UTF_8);
 			
-				if(extension.equals("smscr")){
-					String documentBody = null;
-					documentBody = new String(Files.readAllBytes(resolvedPath), StandardCharsets.UTF_8);
-				
-					// create engine and execute it
-					new SmartScriptEngine(
-						new SmartScriptParser(documentBody).getDocumentNode(), rc
-					).execute();
+				// create engine and execute it
+				new SmartScriptEngine(
+					new SmartScriptParser(documentBody).getDocumentNode(), rc
+				).execute();
+			}
+			else if(cached != null){
+				rc.setETag(cached.getETag());
+				rc.addHeader("Last-Modified", cached.getLastModifiedHeader());
+				String notModified = notModifiedTag(request, cached);
+				if(notModified != null){
+					// the client keeps the representation it has, so it gets back its tag
+					rc.setETag(notModified);
+					rc.setStatusCode(304);
+					rc.setStatusText("Not Modified");
+					rc.setContentLength(0);
+				}
+				else if(cached.isMapped()){
+					serveFile(rc, mimeType, cached, null, rangeHeader(request, cached));
 				}
 				else{
-					// open file, read its content and write it to rc (that will generate header and send file bytes to client)
-					rc.write(Files.readAllBytes(resolvedPath));
+					try(FileChannel file = FileChannel.open(resolvedPath, StandardOpenOption.READ)){
+						serveFile(rc, mimeType, null, file, rangeHeader(request, cached));
+					}
 				}
-				
-				ostream.flush();
-				csocket.close();
+			}
+			else{
+				// open file and transfer its content to rc (that will generate header and send file bytes to client)
+				try(FileChannel file = FileChannel.open(resolvedPath, StandardOpenOption.READ)){
+					serveFile(rc, mimeType, null, file, rangeHeader(request, cached));
+				}
+			}
+			rc.finish();
 			
-			}catch(IOException e){
-				e.printStackTrace();
+			return rc.isKeepAlive();
+		}
+		
+		/**
+		 * Writes a static file, or the requested ranges of it, to the given context. The file is
+		 * either a cached file or an open file channel.
+		 * @param rc Context of the response.
+		 * @param mimeType Mime type of the file.
+		 * @param cached Cached file with mapped content, or <code>null</code>.
+		 * @param file Open file, used if <code>cached</code> is <code>null</code>.
+		 * @param rangeHeader Value of the <code>Range</code> header, or <code>null</code>.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private void serveFile(RequestContext rc, String mimeType, StaticFileCache.Entry cached, FileChannel file, String rangeHeader) throws IOException {
+			long size = cached != null ? cached.getSize() : file.size();
+			rc.addHeader("Accept-Ranges", "bytes");
+			
+			List<ByteRange> ranges = rangeHeader == null ? null : ByteRange.parse(rangeHeader, size);
+			if(ranges == null){
+				rc.setContentLength(size);
+				writeRegion(rc, cached, file, 0, size);
+				return;
+			}
+			
+			// ranges refer to the uncompressed file
+			rc.setCompression(null, 0);
+			if(ranges.isEmpty()){
+				rc.setStatusCode(416);
+				rc.setStatusText("Range Not Satisfiable");
+				rc.addHeader("Content-Range", "bytes */" + size);
+				rc.setContentLength(0);
+				return;
+			}
+			
+			rc.setStatusCode(206);
+			rc.setStatusText("Partial Content");
+			if(ranges.size() == 1){
+				ByteRange range = ranges.get(0);
+				rc.addHeader("Content-Range", range.toContentRange(size));
+				rc.setContentLength(range.getLength());
+				writeRegion(rc, cached, file, range.getStart(), range.getLength());
+				return;
+			}
+			
+			String boundary = Long.toHexString(sessionRandom.nextLong()) + Long.toHexString(System.nanoTime());
+			byte[][] partHeaders = new byte[ranges.size()][];
+			byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+			long length = end.length;
+			for(int i = 0; i < ranges.size(); i++){
+				ByteRange range = ranges.get(i);
+				partHeaders[i] = (
+					"\r\n--" + boundary + "\r\n" +
+					"Content-Type: " + mimeType + "\r\n" +
+					"Content-Range: " + range.toContentRange(size) + "\r\n\r\n"
+				).getBytes(StandardCharsets.US_ASCII);
+				length += partHeaders[i].length + range.getLength();
+			}
+			rc.setMimeType("multipart/byteranges; boundary=" + boundary);
+			rc.setContentLength(length);
+			for(int i = 0; i < ranges.size(); i++){
+				ByteRange range = ranges.get(i);
+				rc.write(partHeaders[i]);
+				writeRegion(rc, cached, file, range.getStart(), range.getLength());
+			}
+			rc.write(end);
+		}
+		
+		/**
+		 * Fetches the <code>Range</code> header of the request, unless the <code>If-Range</code> header says
+		 * that the file changed since the client got the rest of it.
+		 * @param request Parsed request.
+		 * @param cached Cached file, or <code>null</code> if the file has no validators.
+		 * @return Value of the <code>Range</code> header, or <code>null</code> if the whole file is sent.
+		 */
+		private String rangeHeader(HttpRequest request, StaticFileCache.Entry cached) {
+			String range = request.getHeader("Range");
+			if(range == null) return null;
+			boolean matches = cached == null
+				? ByteRange.ifRangeMatches(request.getHeader("If-Range"), null, null)
+				: ByteRange.ifRangeMatches(request.getHeader("If-Range"), cached.getETag(), cached.getLastModifiedHeader());
+			return matches ? range : null;
+		}
+		
+		/**
+		 * Checks whether the client already has the current version of the file, according to the
+		 * <code>If-None-Match</code> header or, if it is not sent, the <code>If-Modified-Since</code> header.
+		 * The tags of compressed versions of the file match as well.
+		 * @param request Parsed request.
+		 * @param cached Cached file.
+		 * @return Entity tag of the version the client has, or <code>null</code> if the file was modified.
+		 */
+		private String notModifiedTag(HttpRequest request, StaticFileCache.Entry cached) {
+			String eTag = cached.getETag();
+			String ifNoneMatch = request.getHeader("If-None-Match");
+			if(ifNoneMatch != null){
+				for(String tag : ifNoneMatch.split(",")){
+					tag = tag.trim();
+					if(tag.startsWith("W/")){
+						tag = tag.substring(2);
+					}
+					if(tag.equals("*") || tag.equals(eTag)) return eTag;
+					if(tag.equals(RequestContext.codingETag(eTag, "gzip")) || tag.equals(RequestContext.codingETag(eTag, "deflate"))) return tag;
+				}
+				return null;
+			}
+			
+			String ifModifiedSince = request.getHeader("If-Modified-Since");
+			if(ifModifiedSince == null) return null;
+			try {
+				long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+				return cached.getLastModified() / 1000 <= since / 1000 ? eTag : null;
+			} catch (DateTimeParseException e) {
+				return null;
+			}
+		}
+		
+		/**
+		 * Writes a region of a static file to the given context.
+		 * @param rc Context of the response.
+		 * @param cached Cached file with mapped content, or <code>null</code>.
+		 * @param file Open file, used if <code>cached</code> is <code>null</code>.
+		 * @param position Position of the first byte of the region.
+		 * @param count Number of bytes in the region.
+		 * @throws IOException If an IO Error occurs.
+		 */
+		private void writeRegion(RequestContext rc, StaticFileCache.Entry cached, FileChannel file, long position, long count) throws IOException {
+			if(cached != null){
+				ByteBuffer content = cached.getContent();
+				content.position((int) position).limit((int) (position + count));
+				rc.write(content);
+			}
+			else{
+				rc.write(file, position, count);
+			}
+		}
+		
+		/**
+		 * Creates a {@link RequestContext} for the current request.
+		 * @return New {@link RequestContext}.
+		 */
+		private RequestContext createContext() {
+			RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
+			rc.setKeepAlive(keepAlive);
+			rc.setVersion(version);
+			rc.setBufferSize(responseBufferSize);
+			if(compression){
+				rc.setCompression(contentCoding, compressionMinSize);
+				rc.setNegotiable(true);
+			}
+			rc.setOutputChannel(csocket.getChannel());
+			return rc;
+		}
+		
+		/**
+		 * Chooses the content coding for the response from the <code>Accept-Encoding</code> header.
+		 * @param acceptEncoding Value of the header, or <code>null</code>.
+		 * @return <code>gzip</code> or <code>deflate</code> if the client accepts it, <code>null</code> otherwise.
+		 */
+		private String negotiateCoding(String acceptEncoding) {
+			if(acceptEncoding == null) return null;
+			boolean deflate = false;
+			for(String coding : acceptEncoding.split(",")){
+				String[] parts = coding.split(";");
+				String name = parts[0].trim().toLowerCase();
+				if(parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?")) continue;
+				if(name.equals("gzip")) return "gzip";
+				if(name.equals("deflate")) deflate = true;
+			}
+			return deflate ? "deflate" : null;
+		}
+		
+		/**
+		 * Checks whether the client wants to keep the connection open after the response.
+		 * HTTP/1.1 connections are persistent unless the client asks to close them, while HTTP/1.0
+		 * connections are persistent only if the client asks for it.
+		 * @param request Parsed request.
+		 * @return <code>true</code> if the connection is persistent, <code>false</code> otherwise.
+		 */
+		private boolean isPersistent(HttpRequest request) {
+			String connection = request.getHeader("Connection");
+			if(version.equals("HTTP/1.1")){
+				return !"close".equalsIgnoreCase(connection);
 			}
+			return "keep-alive".equalsIgnoreCase(connection);
 		}
 
 		/**
 		 * Checks whether session is still valid and refreshes parameters.
 		 * @param request Client request.
 		 */
-		private void checkSession(List<String> request) {
-			synchronized(sessions){
-				String sidCandidate = null;
-				SessionMapEntry session = null;
-				
-				for(int i = 0; i < request.size(); i++){
-					if(request.get(i).startsWith("Cookie:")){
-						if(request.get(i).contains("sid")){
-							String[] elements = request.get(i).split(" ");
-							for(String s : elements){
-								if(s.startsWith("sid")){
-									sidCandidate = s.split("=")[1];
-									sidCandidate = sidCandidate.substring(1, sidCandidate.length()-1);
-								}
-							}
-						}
-					}
-				}
-				
-				if(sidCandidate == null){
-					Map<String, String> map = new ConcurrentHashMap<>();
-					SID = getRandomString();
-					session = new SessionMapEntry(SID, sessionTimeout + new Date().getTime()/1000, map); 
-					
-					sessions.put(SID, session);
-					
-					outputCookies.add(new RCCookie("sid", SID, address, "/", null));
+		private void checkSession(HttpRequest request) {
+			String sidCandidate = getCookie(request.getHeader("Cookie"), "sid");
+			if(sidCandidate != null){
+				permPrams = sessions.touch(sidCandidate);
+				if(permPrams != null){
+					SID = sidCandidate;
+					return;
 				}
-				else if (sessions.containsKey(sidCandidate)){
-					
-					session = sessions.get(sidCandidate);			
-					
-					if(new Date().getTime() - session.validUntil < 0){
-						sessions.remove(session);
-					}
-					else{
-						session.validUntil = new Date().getTime()/1000 + sessionTimeout;
-					}
+			}
+			
+			// unknown and expired session IDs, e.g. of sessions from before a restart, get a new session
+			do {
+				SID = getRandomString();
+				permPrams = sessions.create(SID);
+			} while(permPrams == null);
+			outputCookies.add(new RCCookie("sid", SID, address, "/", null));
+		}
+		
+		/**
+		 * Finds the value of the given cookie in the <code>Cookie</code> header.
+		 * @param cookies Value of the header, or <code>null</code>.
+		 * @param name Name of the cookie.
+		 * @return Value of the cookie without quotes, or <code>null</code> if it is not sent.
+		 */
+		private String getCookie(String cookies, String name) {
+			if(cookies == null) return null;
+			for(String cookie : cookies.split(";")){
+				int equals = cookie.indexOf('=');
+				if(equals == -1 || !cookie.substring(0, equals).trim().equals(name)) continue;
+				String value = cookie.substring(equals + 1).trim();
+				if(value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")){
+					value = value.substring(1, value.length() - 1);
 				}
-				permPrams = session.map;
+				return value;
 			}
+			return null;
 		}
 		
 		/**
@@ -504,9 +1653,10 @@ public class SmartHttpServer {
 		 */
 		private String getRandomString() {
 			String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+			SecureRandom random = SESSION_RANDOM.get();
 			StringBuilder sb = new StringBuilder(20);
 			for(int i = 0; i < 20; i++){
-				sb.append(letters.charAt(sessionRandom.nextInt(letters.length())));
+				sb.append(letters.charAt(random.nextInt(letters.length())));
 			}
 			return sb.toString();
 		}
@@ -522,75 +1672,6 @@ public class SmartHttpServer {
 			}
 		}
 
-		/**
-		 * Reads the request and returns headers.
-		 * @return Headers. 
-		 * @throws IOException If an IO Error occurs.
-		 */
-		private List<String> readRequest() throws IOException {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int state = 0;
-	l:		while(true) {
-				int b = istream.read();
-				if(b==-1) return null;
-				if(b!=13) {
-					bos.write(b);
-				}
-				switch(state) {
-				case 0: 
-					if(b==13) { state=1; } else if(b==10) state=4;
-					break;
-				case 1: 
-					if(b==10) { state=2; } else state=0;
-					break;
-				case 2: 
-					if(b==13) { state=3; } else state=0;
-					break;
-				case 3: 
-					if(b==10) { break l; } else state=0;
-					break;
-				case 4: 
-					if(b==10) { break l; } else state=0;
-					break;
-				}
-			}
-			
-			if(bos.toByteArray() == null){
-				sendError(ostream, 400, "Bad request");
-				stop(); 
-			}
-			
-			String requestStr = new String(bos.toByteArray(), StandardCharsets.US_ASCII);
-			
-			return extractHeaders(requestStr);
-		}
-
-		/**
-		 * Helper method for extracting headers.
-		 * @param requestHeader String to parse.
-		 * @return Headers.
-		 */
-		private List<String> extractHeaders(String requestHeader) {
-			List<String> headers = new ArrayList<String>();
-			String currentLine = null;
-			for(String s : requestHeader.split("\n")) {
-				if(s.isEmpty()) break;
-				char c = s.charAt(0);
-				if(c==9 || c==32) {
-					currentLine += s;
-				} else {
-					if(currentLine != null) {
-						headers.add(currentLine);
-					}
-					currentLine = s;
-				}
-			}
-			if(!currentLine.isEmpty()) {
-				headers.add(currentLine);
-			}
-			return headers;
-		}
-
 		/**
 		 * Helper method used for sending errors.
 		 * @param cos Output stream.
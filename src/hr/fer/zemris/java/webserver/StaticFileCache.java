@@ -0,0 +1,251 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of static files. For every file it keeps the validators sent to clients, and files which fit the
+ * cache are also kept memory mapped. Files are kept in least recently used order and evicted once the
+ * total size of mapped files exceeds the configured capacity, or once there are too many cached files.
+ * Modification time of a cached file is checked at most once per check interval, and a changed file is
+ * cached again.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class StaticFileCache {
+
+	/**
+	 * Maximum number of cached files, mapped or not.
+	 */
+	private static final int MAX_ENTRIES = 4096;
+
+	/**
+	 * Represents one cached file.
+	 * @author Mislav Gillinger
+	 * @version 1.0
+	 */
+	public static class Entry {
+		/**
+		 * Mapped content of the file, or <code>null</code> if the file is too large to be mapped.
+		 */
+		private ByteBuffer content;
+		/**
+		 * Size of the file, in bytes.
+		 */
+		private long size;
+		/**
+		 * Modification time of the file, in milliseconds.
+		 */
+		private long lastModified;
+		/**
+		 * Entity tag of the file.
+		 */
+		private String etag;
+		/**
+		 * Modification time of the file, formatted for the <code>Last-Modified</code> header.
+		 */
+		private String lastModifiedHeader;
+		/**
+		 * Time when modification time was last checked, in milliseconds.
+		 */
+		private volatile long checked;
+
+		/**
+		 * Creates a new {@link Entry}.
+		 * @param content Mapped content of the file, or <code>null</code>.
+		 * @param size Size of the file, in bytes.
+		 * @param lastModified Modification time of the file, in milliseconds.
+		 * @param checked Time when modification time was checked, in milliseconds.
+		 */
+		public Entry(ByteBuffer content, long size, long lastModified, long checked) {
+			this.content = content;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checked = checked;
+			this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+			this.lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				Instant.ofEpochMilli(lastModified).atOffset(ZoneOffset.UTC)
+			);
+		}
+
+		/**
+		 * Fetches the content of the file. Returned buffer is independent of other callers' buffers.
+		 * @return Content of the file, or <code>null</code> if the file is not mapped.
+		 */
+		public ByteBuffer getContent() {
+			return content == null ? null : content.duplicate();
+		}
+
+		/**
+		 * Checks whether the content of the file is mapped.
+		 * @return <code>true</code> if the content is mapped, <code>false</code> otherwise.
+		 */
+		public boolean isMapped() {
+			return content != null;
+		}
+
+		/**
+		 * Fetches the size of the file.
+		 * @return Size of the file, in bytes.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Fetches the modification time of the file.
+		 * @return Modification time of the file, in milliseconds.
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Fetches the entity tag of the file, which changes whenever its size or modification time changes.
+		 * @return Entity tag of the file, in quotes.
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Fetches the modification time of the file formatted as a HTTP date.
+		 * @return Value of the <code>Last-Modified</code> header.
+		 */
+		public String getLastModifiedHeader() {
+			return lastModifiedHeader;
+		}
+
+		/**
+		 * Fetches the number of mapped bytes of the file.
+		 * @return Number of mapped bytes.
+		 */
+		private long getMappedSize() {
+			return content == null ? 0 : size;
+		}
+	}
+
+	/**
+	 * Maximum total size of mapped files, in bytes.
+	 */
+	private long capacity;
+	/**
+	 * Maximum size of a single mapped file, in bytes.
+	 */
+	private long maxFileSize;
+	/**
+	 * Time between two modification time checks of a file, in milliseconds.
+	 */
+	private long checkInterval;
+	/**
+	 * Total size of mapped files, in bytes.
+	 */
+	private long size;
+	/**
+	 * Cached files, in least recently used order.
+	 */
+	private Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Creates a new {@link StaticFileCache}.
+	 * @param capacity Maximum total size of mapped files, in bytes. If it is 0, no file is mapped.
+	 * @param maxFileSize Maximum size of a single mapped file, in bytes.
+	 * @param checkInterval Time between two modification time checks of a file, in milliseconds.
+	 */
+	public StaticFileCache(long capacity, long maxFileSize, long checkInterval) {
+		this.capacity = capacity;
+		this.maxFileSize = capacity == 0 ? -1 : Math.min(maxFileSize, capacity);
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * Fetches the cached file, caching it if it is not cached yet.
+	 * @param path Path of the file.
+	 * @return Cached file, or <code>null</code> if given path is not a readable file.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public Entry get(Path path) throws IOException {
+		long now = System.currentTimeMillis();
+		Entry entry;
+		synchronized(entries){
+			entry = entries.get(path);
+			if(entry != null && now - entry.checked < checkInterval) return entry;
+		}
+
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			attributes = null;
+		}
+		if(attributes == null || !attributes.isRegularFile() || !Files.isReadable(path)){
+			remove(path, entry);
+			return null;
+		}
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		if(entry != null && entry.lastModified == lastModified && entry.size == attributes.size()){
+			entry.checked = now;
+			return entry;
+		}
+		remove(path, entry);
+
+		Entry created;
+		if(attributes.size() > maxFileSize){
+			created = new Entry(null, attributes.size(), lastModified, now);
+		}
+		else{
+			try(FileChannel file = FileChannel.open(path, StandardOpenOption.READ)){
+				long fileSize = file.size();
+				created = new Entry(file.map(FileChannel.MapMode.READ_ONLY, 0, fileSize), fileSize, lastModified, now);
+			}
+		}
+
+		synchronized(entries){
+			Entry previous = entries.put(path, created);
+			if(previous != null){
+				size -= previous.getMappedSize();
+			}
+			size += created.getMappedSize();
+			evict();
+		}
+		return created;
+	}
+
+	/**
+	 * Removes the given entry of a file, unless it was already replaced.
+	 * @param path Path of the file.
+	 * @param entry Entry to remove, or <code>null</code>.
+	 */
+	private void remove(Path path, Entry entry) {
+		if(entry == null) return;
+		synchronized(entries){
+			if(entries.remove(path, entry)){
+				size -= entry.getMappedSize();
+			}
+		}
+	}
+
+	/**
+	 * Evicts least recently used files until the cache fits its limits. Mapped memory of an evicted
+	 * file is released once no response uses it any more.
+	 */
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while((size > capacity || entries.size() > MAX_ENTRIES) && it.hasNext()){
+			size -= it.next().getMappedSize();
+			it.remove();
+		}
+	}
+}
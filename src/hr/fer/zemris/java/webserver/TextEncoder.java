@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encoder of text which writes encoded bytes to a stream through reusable buffers, so no byte array is
+ * allocated for a piece of text. Characters are copied to the buffers in slices, so text of any length
+ * is encoded in one pass. Every thread has its own encoder, which keeps the {@link CharsetEncoder} of the
+ * last used charset. Malformed and unmappable characters are replaced, as {@link String#getBytes(Charset)} does.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class TextEncoder {
+
+	/**
+	 * Number of characters encoded at once.
+	 */
+	private static final int SLICE = 1024;
+
+	/**
+	 * Encoders of all threads.
+	 */
+	private static final ThreadLocal<TextEncoder> ENCODERS = ThreadLocal.withInitial(TextEncoder::new);
+
+	/**
+	 * Charset of {@link #encoder}.
+	 */
+	private Charset charset;
+	/**
+	 * Encoder of the last used charset.
+	 */
+	private CharsetEncoder encoder;
+	/**
+	 * Characters which are encoded next.
+	 */
+	private CharBuffer chars = CharBuffer.allocate(SLICE);
+	/**
+	 * Encoded bytes which are written next.
+	 */
+	private ByteBuffer bytes = ByteBuffer.allocate(4 * SLICE);
+
+	/**
+	 * Fetches the encoder of the current thread.
+	 * @param charset Charset to encode with.
+	 * @return Encoder of the current thread.
+	 */
+	public static TextEncoder get(Charset charset) {
+		TextEncoder textEncoder = ENCODERS.get();
+		if(textEncoder.charset != charset){
+			textEncoder.charset = charset;
+			textEncoder.encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			int maxBytes = (int) Math.ceil(textEncoder.encoder.maxBytesPerChar() * SLICE);
+			if(textEncoder.bytes.capacity() < maxBytes){
+				textEncoder.bytes = ByteBuffer.allocate(maxBytes);
+			}
+		}
+		return textEncoder;
+	}
+
+	/**
+	 * Encodes a part of the given text to the stream.
+	 * @param text Text to encode.
+	 * @param off Index of the first character.
+	 * @param len Number of characters.
+	 * @param out Stream to write to.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public void encode(String text, int off, int len, OutputStream out) throws IOException {
+		encoder.reset();
+		chars.clear();
+		bytes.clear();
+		int end = off + len;
+		while(true){
+			int n = Math.min(chars.remaining(), end - off);
+			text.getChars(off, off + n, chars.array(), chars.position());
+			chars.position(chars.position() + n);
+			off += n;
+			if(encodeSlice(off == end, out)) return;
+		}
+	}
+
+	/**
+	 * Encodes a part of the given characters to the stream.
+	 * @param text Characters to encode.
+	 * @param off Index of the first character.
+	 * @param len Number of characters.
+	 * @param out Stream to write to.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	public void encode(char[] text, int off, int len, OutputStream out) throws IOException {
+		encoder.reset();
+		chars.clear();
+		bytes.clear();
+		int end = off + len;
+		while(true){
+			int n = Math.min(chars.remaining(), end - off);
+			System.arraycopy(text, off, chars.array(), chars.position(), n);
+			chars.position(chars.position() + n);
+			off += n;
+			if(encodeSlice(off == end, out)) return;
+		}
+	}
+
+	/**
+	 * Encodes the characters in {@link #chars}. A surrogate at the end of a slice stays in the buffer
+	 * until the rest of the text is copied after it.
+	 * @param last Whether the slice ends the text.
+	 * @param out Stream to write to.
+	 * @return <code>true</code> if the text is completely written.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private boolean encodeSlice(boolean last, OutputStream out) throws IOException {
+		chars.flip();
+		while(encoder.encode(chars, bytes, last).isOverflow()){
+			drain(out);
+		}
+		chars.compact();
+		if(!last) return false;
+
+		CoderResult result;
+		do {
+			result = encoder.flush(bytes);
+			drain(out);
+		} while(result.isOverflow());
+		return true;
+	}
+
+	/**
+	 * Writes the encoded bytes to the stream.
+	 * @param out Stream to write to.
+	 * @throws IOException If an IO Error occurs.
+	 */
+	private void drain(OutputStream out) throws IOException {
+		if(bytes.position() > 0){
+			out.write(bytes.array(), 0, bytes.position());
+			bytes.clear();
+		}
+	}
+}
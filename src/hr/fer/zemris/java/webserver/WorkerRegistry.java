@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of {@link IWebWorker}s which are looked up by the name of their class in a package. Every class is
+ * loaded and instantiated once, on its first lookup, and the instance is shared by all later requests. Names
+ * which do not resolve to a worker are cached as well, up to {@link #MAX_MISSING} of them, so repeated requests
+ * for unknown workers do not reach the class loader.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class WorkerRegistry {
+
+	/**
+	 * Maximum number of cached names which do not resolve to a worker.
+	 */
+	public static final int MAX_MISSING = 1024;
+
+	/**
+	 * Value cached for names which do not resolve to a worker.
+	 */
+	private static final IWebWorker MISSING = context -> {};
+
+	/**
+	 * Package in which worker classes are looked up, with a trailing dot.
+	 */
+	private String packagePrefix;
+	/**
+	 * Class loader which loads worker classes.
+	 */
+	private ClassLoader classLoader;
+	/**
+	 * Workers by their class names, or {@link #MISSING} for names which do not resolve to a worker.
+	 */
+	private Map<String, IWebWorker> workers = new ConcurrentHashMap<>();
+	/**
+	 * Number of cached names which do not resolve to a worker.
+	 */
+	private AtomicInteger missing = new AtomicInteger();
+
+	/**
+	 * Creates a new {@link WorkerRegistry}.
+	 * @param packageName Package in which worker classes are looked up.
+	 * @param classLoader Class loader which loads worker classes.
+	 */
+	public WorkerRegistry(String packageName, ClassLoader classLoader) {
+		this.packagePrefix = packageName + ".";
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Fetches the worker with the given class name.
+	 * @param name Simple name of the worker class.
+	 * @return Worker, or <code>null</code> if there is no worker with given name.
+	 */
+	public IWebWorker get(String name) {
+		IWebWorker worker = workers.get(name);
+		if(worker == null){
+			if(!isIdentifier(name)) return null;
+			worker = load(name);
+			if(worker == MISSING){
+				if(missing.incrementAndGet() > MAX_MISSING){
+					missing.decrementAndGet();
+					return null;
+				}
+				if(workers.putIfAbsent(name, MISSING) != null){
+					missing.decrementAndGet();
+				}
+				return null;
+			}
+			IWebWorker previous = workers.putIfAbsent(name, worker);
+			if(previous != null){
+				worker = previous;
+			}
+		}
+		return worker == MISSING ? null : worker;
+	}
+
+	/**
+	 * Loads and instantiates the worker class with the given name.
+	 * @param name Simple name of the worker class.
+	 * @return New worker, or {@link #MISSING} if the class does not exist or is not a worker.
+	 */
+	private IWebWorker load(String name) {
+		Class<?> referenceToClass;
+		try {
+			referenceToClass = classLoader.loadClass(packagePrefix + name);
+		} catch (ClassNotFoundException | LinkageError e) {
+			return MISSING;
+		}
+		if(!IWebWorker.class.isAssignableFrom(referenceToClass)) return MISSING;
+		try {
+			return (IWebWorker) referenceToClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+			return MISSING;
+		}
+	}
+
+	/**
+	 * Checks whether the given name is a Java identifier, so it can not name a class outside the package.
+	 * @param name Name to check.
+	 * @return <code>true</code> if the name is an identifier, <code>false</code> otherwise.
+	 */
+	private static boolean isIdentifier(String name) {
+		if(name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) return false;
+		for(int i = 1, n = name.length(); i < n; i++){
+			if(!Character.isJavaIdentifierPart(name.charAt(i))) return false;
+		}
+		return true;
+	}
+}
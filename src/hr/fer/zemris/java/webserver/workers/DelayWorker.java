@@ -0,0 +1,59 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Implementation of {@link IAsyncWebWorker} which answers after the number of milliseconds given by the
+ * <code>ms</code> parameter, simulating a slow downstream service without occupying a server thread.
+ * @author Mislav Gillinger
+ * @version 1.0
+ */
+public class DelayWorker implements IAsyncWebWorker {
+
+	/**
+	 * Longest accepted delay, in milliseconds.
+	 */
+	private static final long MAX_DELAY = 10000;
+
+	/**
+	 * Scheduler which completes delayed responses.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "delay-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Override
+	public CompletionStage<Void> processRequestAsync(RequestContext context) {
+		long delay = 100;
+		try {
+			String ms = context.getParameter("ms");
+			if(ms != null){
+				delay = Math.max(0, Math.min(MAX_DELAY, Long.parseLong(ms)));
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+
+		long waited = delay;
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		SCHEDULER.schedule(() -> {
+			context.setMimeType("text/html");
+			try {
+				context.write("<html><body><p>Answered after " + waited + " ms.</p></body></html>");
+				result.complete(null);
+			} catch (IOException | RuntimeException ex) {
+				result.completeExceptionally(ex);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return result;
+	}
+}
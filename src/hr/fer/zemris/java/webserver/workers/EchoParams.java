@@ -1,6 +1,7 @@
 package hr.fer.zemris.java.webserver.workers;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Iterator;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
@@ -18,21 +19,15 @@ public class EchoParams implements IWebWorker{
 		
 		context.setMimeType("text/html");
 		
-		String content = null;
-		content = "<html><body><table>";
-		
-		for(Iterator<String> it = context.getParameterNames().iterator(); it.hasNext();){
-			content += "<tr><td>";
-			String next = it.next();
-			content += next + "</td><td>";
-			content += context.getParameter(next);
-			content += "</td></tr>";
-		}
-		
-		content += "</table></body></html>";
-		
+		Writer writer = context.getWriter();
 		try {
-			context.write(content);
+			writer.write("<html><body><table>");
+			for(Iterator<String> it = context.getParameterNames().iterator(); it.hasNext();){
+				String next = it.next();
+				writer.append("<tr><td>").append(next).append("</td><td>")
+					.append(context.getParameter(next)).append("</td></tr>");
+			}
+			writer.write("</table></body></html>");
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
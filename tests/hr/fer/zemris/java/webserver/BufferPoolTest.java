@@ -0,0 +1,41 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses(){
+		BufferPool pool = new BufferPool(4, false);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).capacity());
+		assertEquals(8192, pool.acquire(5000).capacity());
+		assertEquals(8192, pool.acquire(8192).capacity());
+		assertEquals(100000, pool.acquire(100000).capacity());
+		assertTrue(pool.acquire(10).isDirect());
+	}
+
+	@Test
+	public void testReleasedBufferIsReused(){
+		BufferPool pool = new BufferPool(4, false);
+		ByteBuffer buffer = pool.acquire(4096);
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		ByteBuffer again = pool.acquire(3000);
+		assertSame(buffer, again);
+		assertEquals(0, again.position());
+		assertEquals(1, pool.getAllocated());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testDoubleReleaseInDebugMode(){
+		BufferPool pool = new BufferPool(4, true);
+		ByteBuffer buffer = pool.acquire(4096);
+		pool.release(buffer);
+		pool.release(buffer);
+	}
+}
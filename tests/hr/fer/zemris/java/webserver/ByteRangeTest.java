@@ -0,0 +1,54 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ByteRangeTest {
+
+	@Test
+	public void testSingleRange(){
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-9", 100);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).getStart());
+		assertEquals(9, ranges.get(0).getEnd());
+		assertEquals("bytes 0-9/100", ranges.get(0).toContentRange(100));
+	}
+	
+	@Test
+	public void testOpenAndSuffixRanges(){
+		List<ByteRange> ranges = ByteRange.parse("bytes=90-, -5, 95-200", 100);
+		assertEquals(3, ranges.size());
+		assertEquals(10, ranges.get(0).getLength());
+		assertEquals(95, ranges.get(1).getStart());
+		assertEquals(99, ranges.get(2).getEnd());
+	}
+	
+	@Test
+	public void testUnsatisfiableRange(){
+		assertTrue(ByteRange.parse("bytes=100-", 100).isEmpty());
+	}
+	
+	@Test
+	public void testInvalidHeader(){
+		assertNull(ByteRange.parse("items=0-9", 100));
+		assertNull(ByteRange.parse("bytes=9-0", 100));
+		assertNull(ByteRange.parse("bytes=a-b", 100));
+	}
+
+	@Test
+	public void testIfRange(){
+		String date = "Wed, 21 Oct 2015 07:28:00 GMT";
+		assertTrue(ByteRange.ifRangeMatches(null, "\"10-20\"", date));
+		assertTrue(ByteRange.ifRangeMatches("\"10-20\"", "\"10-20\"", date));
+		assertTrue(ByteRange.ifRangeMatches(date, "\"10-20\"", date));
+		// the file changed since the client got its part
+		assertFalse(ByteRange.ifRangeMatches("\"10-19\"", "\"10-20\"", date));
+		assertFalse(ByteRange.ifRangeMatches("Tue, 20 Oct 2015 07:28:00 GMT", "\"10-20\"", date));
+		assertFalse(ByteRange.ifRangeMatches("W/\"10-20\"", "\"10-20\"", date));
+		assertFalse(ByteRange.ifRangeMatches("\"10-20\"", null, null));
+	}
+}
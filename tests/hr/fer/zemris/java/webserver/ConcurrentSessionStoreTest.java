@@ -0,0 +1,143 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ConcurrentSessionStoreTest {
+
+	@Test
+	public void testCreateAndTouch(){
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		assertNull(store.touch("AAAA"));
+		Map<String, String> map = store.create("AAAA");
+		assertNotNull(map);
+		map.put("counter", "1");
+		assertSame(map, store.touch("AAAA"));
+		assertEquals("1", store.touch("AAAA").get("counter"));
+		assertNull(store.create("AAAA"));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testNullValueRemovesParameter(){
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		StringBuilder events = new StringBuilder();
+		store.addListener(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) {}
+			public void sessionRefreshed(String sid, long validUntil) {}
+			public void parameterSet(String sid, String name, String value) { events.append(name).append('=').append(value).append(';'); }
+			public void parameterRemoved(String sid, String name) { events.append("-").append(name).append(';'); }
+			public void sessionRemoved(String sid) {}
+		});
+		Map<String, String> map = store.create("AAAA");
+		map.put("login", "true");
+		assertEquals("true", map.put("login", null));
+		assertNull(map.put("missing", null));
+		assertNull(store.touch("AAAA").get("login"));
+		assertFalse(store.touch("AAAA").containsKey("login"));
+		assertEquals("login=true;-login;", events.toString());
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException{
+		ISessionStore store = new ConcurrentSessionStore(50, 10);
+		store.create("AAAA");
+		store.create("BBBB");
+		Thread.sleep(100);
+		assertNull(store.touch("AAAA"));
+		assertEquals(1, store.size());
+		assertEquals(1, store.removeExpired());
+		assertEquals(0, store.size());
+		assertNotNull(store.create("AAAA"));
+	}
+
+	@Test
+	public void testReaperVisitsOnlyDueSessions() throws InterruptedException{
+		ConcurrentSessionStore store = new ConcurrentSessionStore(200, 10);
+		store.create("AAAA");
+		store.create("BBBB");
+		Thread.sleep(60);
+		for(int i = 0; i < 1000; i++){
+			store.create("L" + i);
+		}
+		assertNotNull(store.touch("BBBB"));
+		Thread.sleep(160);
+		
+		// only the first two sessions are due, and the refreshed one is filed again
+		assertEquals(1, store.removeExpired());
+		assertEquals(2, store.getVisitedSessions());
+		assertNull(store.touch("AAAA"));
+		assertNotNull(store.touch("BBBB"));
+		
+		Thread.sleep(300);
+		assertEquals(1001, store.removeExpired());
+		assertEquals(0, store.size());
+	}
+	
+	@Test
+	public void testListenersAndUpdater(){
+		ConcurrentSessionStore store = new ConcurrentSessionStore(60 * 1000);
+		StringBuilder events = new StringBuilder();
+		store.addListener(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) { events.append("created ").append(sid).append(';'); }
+			public void sessionRefreshed(String sid, long validUntil) { events.append("refreshed ").append(sid).append(';'); }
+			public void parameterSet(String sid, String name, String value) { events.append(name).append('=').append(value).append(';'); }
+			public void parameterRemoved(String sid, String name) { events.append("-").append(name).append(';'); }
+			public void sessionRemoved(String sid) { events.append("removed ").append(sid).append(';'); }
+		});
+		Map<String, String> map = store.create("AAAA");
+		map.put("a", "1");
+		map.remove("a");
+		map.remove("b");
+		assertEquals("created AAAA;a=1;-a;", events.toString());
+		
+		events.setLength(0);
+		ISessionListener updater = store.getUpdater();
+		updater.sessionCreated("BBBB", System.currentTimeMillis() + 1000);
+		updater.parameterSet("BBBB", "x", "y");
+		updater.parameterSet("CCCC", "x", "y");
+		updater.sessionCreated("DDDD", System.currentTimeMillis() - 1000);
+		assertEquals("", events.toString());
+		assertEquals("y", store.touch("BBBB").get("x"));
+		assertNull(store.touch("CCCC"));
+		assertNull(store.touch("DDDD"));
+		
+		StringBuilder exported = new StringBuilder();
+		store.export(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) { exported.append(sid).append(';'); }
+			public void sessionRefreshed(String sid, long validUntil) { fail(); }
+			public void parameterSet(String sid, String name, String value) { exported.append(name).append(';'); }
+			public void parameterRemoved(String sid, String name) { fail(); }
+			public void sessionRemoved(String sid) { fail(); }
+		});
+		assertEquals(12, exported.length());
+		assertTrue(exported.toString().contains("AAAA;"));
+		assertTrue(exported.toString().contains("BBBB;x;"));
+	}
+	
+	@Test
+	public void testConcurrentCreation() throws InterruptedException{
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		AtomicInteger created = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++){
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 1000; i++){
+					if(store.create("S" + i) != null) created.incrementAndGet();
+					assertNotNull(store.touch("S" + i));
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		assertEquals(1000, created.get());
+		assertEquals(1000, store.size());
+	}
+}
@@ -0,0 +1,38 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class HashedWheelTimerTest {
+
+	@Test
+	public void testTimeoutExpires() throws InterruptedException{
+		HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+		CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		HashedWheelTimer.Timeout timeout = timer.schedule(latch::countDown, 200);
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		timer.stop();
+	}
+
+	@Test
+	public void testCancelledTimeoutDoesNotExpire() throws InterruptedException{
+		HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+		AtomicInteger runs = new AtomicInteger();
+		HashedWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 50);
+		assertTrue(timeout.cancel());
+		Thread.sleep(200);
+		assertEquals(0, runs.get());
+		assertFalse(timeout.isExpired());
+		timer.stop();
+	}
+}
@@ -0,0 +1,60 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class HeaderWriterTest {
+
+	private static String written(HeaderWriter writer) throws IOException{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.writeTo(os);
+		return new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	public void testStatusLines() throws IOException{
+		assertEquals("HTTP/1.1 200 OK\r\n", written(HeaderWriter.get().statusLine(200, "OK")));
+		assertEquals("HTTP/1.1 200 Fine\r\n", written(HeaderWriter.get().statusLine(200, "Fine")));
+		assertEquals("HTTP/1.1 205 Idemo dalje\r\n", written(HeaderWriter.get().statusLine(205, "Idemo dalje")));
+	}
+
+	@Test
+	public void testNumbersAndHeaders() throws IOException{
+		HeaderWriter writer = HeaderWriter.get();
+		writer.append(HeaderWriter.CONTENT_LENGTH).append(0).append(HeaderWriter.CRLF);
+		writer.append(HeaderWriter.CONTENT_LENGTH).append(9876543210L).append(HeaderWriter.CRLF);
+		writer.header(HeaderWriter.CONNECTION, "keep-alive");
+		assertEquals("Content-Length: 0\r\nContent-Length: 9876543210\r\nConnection: keep-alive\r\n", written(writer));
+	}
+
+	@Test
+	public void testDate() throws IOException{
+		String date = written(HeaderWriter.get().date());
+		assertTrue(date.startsWith("Date: "));
+		assertTrue(date.endsWith(" GMT\r\n"));
+	}
+
+	@Test
+	public void testGrowsAndResets() throws IOException{
+		HeaderWriter writer = HeaderWriter.get();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 200; i++){
+			writer.append("abcdefgh");
+			expected.append("abcdefgh");
+		}
+		assertEquals(expected.toString(), written(writer));
+		assertEquals("", written(HeaderWriter.get()));
+	}
+
+	@Test
+	public void testCharsetCached(){
+		assertSame(HeaderWriter.charset("UTF-8"), HeaderWriter.charset("UTF-8"));
+		assertEquals(StandardCharsets.UTF_8, HeaderWriter.charset("UTF-8"));
+	}
+}
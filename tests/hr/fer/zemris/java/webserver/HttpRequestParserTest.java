@@ -0,0 +1,52 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class HttpRequestParserTest {
+
+	private static HttpRequestParser parser(String input){
+		return new HttpRequestParser(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)), 256);
+	}
+
+	@Test
+	public void testRequestLineAndHeaders() throws IOException{
+		HttpRequest request = parser("get /index.html?a=1 HTTP/1.1\r\nHost: localhost\r\naccept-encoding:  gzip \r\n\r\n").next();
+		assertTrue(request.isValid());
+		assertEquals("GET", request.getMethod());
+		assertEquals("/index.html?a=1", request.getTarget());
+		assertEquals("HTTP/1.1", request.getVersion());
+		assertEquals("localhost", request.getHeader("host"));
+		assertEquals("gzip", request.getHeader("Accept-Encoding"));
+		assertNull(request.getHeader("Accept"));
+	}
+
+	@Test
+	public void testContinuationLine() throws IOException{
+		HttpRequest request = parser("GET / HTTP/1.0\nX-Long: first\n\tsecond\n\n").next();
+		assertEquals("first\tsecond", request.getHeader("x-long"));
+	}
+
+	@Test
+	public void testPipelinedRequests() throws IOException{
+		HttpRequestParser parser = parser("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+		assertEquals("/a", parser.next().getTarget());
+		assertTrue(parser.available() > 0);
+		assertEquals("/b", parser.next().getTarget());
+		assertNull(parser.next());
+	}
+
+	@Test
+	public void testInvalidRequests() throws IOException{
+		assertFalse(parser("GET /\r\n\r\n").next().isValid());
+		StringBuilder large = new StringBuilder("GET / HTTP/1.1\r\nX: ");
+		for(int i = 0; i < 300; i++) large.append('x');
+		assertFalse(parser(large + "\r\n\r\n").next().isValid());
+	}
+}
@@ -0,0 +1,202 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class OffHeapSessionStoreTest {
+
+	@Test
+	public void testCreateAndTouch(){
+		ISessionStore store = new OffHeapSessionStore(60 * 1000);
+		assertNull(store.touch("AAAA"));
+		Map<String, String> map = store.create("AAAA");
+		assertNotNull(map);
+		assertTrue(map.isEmpty());
+		map.put("counter", "1");
+		map.put("ime", "Čevapčić");
+		assertEquals("1", store.touch("AAAA").get("counter"));
+		assertEquals("Čevapčić", store.touch("AAAA").get("ime"));
+		assertEquals(2, store.touch("AAAA").size());
+		assertEquals("1", map.remove("counter"));
+		assertNull(map.get("counter"));
+		assertNull(store.create("AAAA"));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testRecordsGrowAndShrink(){
+		ISessionStore store = new OffHeapSessionStore(60 * 1000);
+		Map<String, String> map = store.create("AAAA");
+		store.create("BBBB").put("x", "y");
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'ž');
+		String large = new String(chars);
+		map.put("large", large);
+		map.put("small", "s");
+		assertEquals(large, store.touch("AAAA").get("large"));
+		map.remove("large");
+		assertEquals("s", store.touch("AAAA").get("small"));
+		assertEquals("y", store.touch("BBBB").get("x"));
+	}
+
+	@Test
+	public void testRecordsLargerThanSlab() throws IOException{
+		char[] chars = new char[1 << 20];
+		Arrays.fill(chars, 'ž');
+		String large = new String(chars);
+		Path directory = Files.createTempDirectory("journal");
+		ISessionStore heap = new ConcurrentSessionStore(60 * 1000);
+		SessionJournal journal = new SessionJournal(directory, heap);
+		journal.open();
+		heap.create("AAAA").put("large", large);
+		heap.create("BBBB").put("x", "y");
+		journal.close();
+		
+		// a journal written by the heap store is replayed into the off-heap store
+		OffHeapSessionStore store = new OffHeapSessionStore(60 * 1000);
+		new SessionJournal(directory, store).open();
+		assertEquals(large, store.touch("AAAA").get("large"));
+		assertEquals("y", store.touch("BBBB").get("x"));
+		long allocated = store.getAllocated();
+		store.touch("AAAA").put("large", "small");
+		assertEquals("small", store.touch("AAAA").get("large"));
+		assertTrue(store.getAllocated() < allocated);
+		store.touch("AAAA").put("large", large + large);
+		assertEquals(large + large, store.touch("AAAA").get("large"));
+	}
+
+	@Test
+	public void testManySessions(){
+		ISessionStore store = new OffHeapSessionStore(60 * 1000);
+		Map<String, String> expected = new HashMap<>();
+		for(int i = 0; i < 100000; i++){
+			store.create("S" + i).put("i", Integer.toString(i));
+			expected.put("S" + i, Integer.toString(i));
+		}
+		ISessionListener updater = store.getUpdater();
+		for(int i = 0; i < 100000; i += 3){
+			updater.sessionRemoved("S" + i);
+			expected.remove("S" + i);
+		}
+		assertEquals(expected.size(), store.size());
+		for(int i = 0; i < 100000; i++){
+			Map<String, String> map = store.touch("S" + i);
+			if(expected.containsKey("S" + i)){
+				assertEquals(expected.get("S" + i), map.get("i"));
+			}
+			else{
+				assertNull(map);
+			}
+		}
+	}
+
+	@Test
+	public void testNullValueRemovesParameter(){
+		ISessionStore store = new OffHeapSessionStore(60 * 1000);
+		StringBuilder events = new StringBuilder();
+		store.addListener(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) {}
+			public void sessionRefreshed(String sid, long validUntil) {}
+			public void parameterSet(String sid, String name, String value) { events.append(name).append('=').append(value).append(';'); }
+			public void parameterRemoved(String sid, String name) { events.append("-").append(name).append(';'); }
+			public void sessionRemoved(String sid) {}
+		});
+		Map<String, String> map = store.create("AAAA");
+		map.put("login", "true");
+		assertEquals("true", map.put("login", null));
+		assertNull(map.put("missing", null));
+		assertNull(store.touch("AAAA").get("login"));
+		assertFalse(store.touch("AAAA").containsKey("login"));
+		assertEquals("login=true;-login;", events.toString());
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException{
+		ISessionStore store = new OffHeapSessionStore(50, 10);
+		for(int i = 0; i < 1000; i++){
+			store.create("S" + i);
+		}
+		Thread.sleep(100);
+		store.create("AAAA");
+		assertNull(store.touch("S0"));
+		assertEquals(1000, store.size());
+		assertEquals(999, store.removeExpired());
+		assertEquals(1, store.size());
+		assertNotNull(store.touch("AAAA"));
+	}
+
+	@Test
+	public void testReaperVisitsOnlyDueSessions() throws InterruptedException{
+		OffHeapSessionStore store = new OffHeapSessionStore(200, 10);
+		store.create("AAAA");
+		store.create("BBBB").put("x", "y");
+		Thread.sleep(60);
+		for(int i = 0; i < 1000; i++){
+			store.create("L" + i);
+		}
+		assertNotNull(store.touch("BBBB"));
+		// the record is moved to a larger slot, which does not change where the session is filed
+		store.touch("BBBB").put("large", "0123456789012345678901234567890123456789");
+		Thread.sleep(160);
+
+		// only the first two sessions are due, and the refreshed one is filed again
+		assertEquals(1, store.removeExpired());
+		assertEquals(2, store.getVisitedSessions());
+		assertNull(store.touch("AAAA"));
+		assertNotNull(store.touch("BBBB"));
+
+		Thread.sleep(300);
+		assertEquals(1001, store.removeExpired());
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testListenersAndUpdater(){
+		ISessionStore store = new OffHeapSessionStore(60 * 1000);
+		StringBuilder events = new StringBuilder();
+		store.addListener(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) { events.append("created ").append(sid).append(';'); }
+			public void sessionRefreshed(String sid, long validUntil) { events.append("refreshed ").append(sid).append(';'); }
+			public void parameterSet(String sid, String name, String value) { events.append(name).append('=').append(value).append(';'); }
+			public void parameterRemoved(String sid, String name) { events.append("-").append(name).append(';'); }
+			public void sessionRemoved(String sid) { events.append("removed ").append(sid).append(';'); }
+		});
+		Map<String, String> map = store.create("AAAA");
+		map.put("a", "1");
+		map.remove("a");
+		map.remove("b");
+		assertEquals("created AAAA;a=1;-a;", events.toString());
+
+		events.setLength(0);
+		ISessionListener updater = store.getUpdater();
+		updater.sessionCreated("BBBB", System.currentTimeMillis() + 1000);
+		updater.parameterSet("BBBB", "x", "y");
+		updater.parameterSet("CCCC", "x", "y");
+		updater.sessionCreated("DDDD", System.currentTimeMillis() - 1000);
+		assertEquals("", events.toString());
+		assertEquals("y", store.touch("BBBB").get("x"));
+		assertNull(store.touch("CCCC"));
+		assertNull(store.touch("DDDD"));
+
+		StringBuilder exported = new StringBuilder();
+		store.export(new ISessionListener() {
+			public void sessionCreated(String sid, long validUntil) { exported.append(sid).append(';'); }
+			public void sessionRefreshed(String sid, long validUntil) { fail(); }
+			public void parameterSet(String sid, String name, String value) { exported.append(name).append(';'); }
+			public void parameterRemoved(String sid, String name) { fail(); }
+			public void sessionRemoved(String sid) { fail(); }
+		});
+		assertEquals(12, exported.length());
+		assertTrue(exported.toString().contains("AAAA;"));
+		assertTrue(exported.toString().contains("BBBB;x;"));
+	}
+}
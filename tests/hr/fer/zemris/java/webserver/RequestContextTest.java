@@ -2,16 +2,25 @@ package hr.fer.zemris.java.webserver;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.workers.DelayWorker;
 
 @SuppressWarnings("javadoc")
 public class RequestContextTest {
@@ -95,6 +104,160 @@ public class RequestContextTest {
 	    assertTrue(content.contains("Set-Cookie: korisnik=\"perica\"; Domain=127.0.0.1; Path=/; Max-Age=3600"));
 	}
 	
+	@Test
+	public void testKeepAliveContentLength() throws IOException{
+		OutputStream os = Files.newOutputStream(Paths.get("primjer4.txt"));
+		RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setKeepAlive(true);
+		rc.setMimeType("text/plain");
+		rc.write("Blabla").write("Test");
+		rc.finish();
+		os.close();
+		
+		String content = new String(Files.readAllBytes(Paths.get("primjer4.txt")));
+		
+		assertTrue(content.contains("Content-Length: 10\r\n"));
+		assertTrue(content.contains("Connection: keep-alive\r\n"));
+		assertTrue(content.endsWith("\r\n\r\nBlablaTest"));
+	}
+	
+	@Test
+	public void testChunkedWhenBufferOverflows() throws IOException{
+		OutputStream os = Files.newOutputStream(Paths.get("primjer4.txt"));
+		RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setKeepAlive(true);
+		rc.setVersion("HTTP/1.1");
+		rc.setBufferSize(8);
+		rc.write("Blabla").write("Test");
+		rc.finish();
+		os.close();
+		
+		String content = new String(Files.readAllBytes(Paths.get("primjer4.txt")));
+		
+		assertTrue(content.contains("Transfer-Encoding: chunked\r\n"));
+		assertFalse(content.contains("Content-Length"));
+		assertTrue(content.endsWith("\r\n\r\n6\r\nBlabla\r\n4\r\nTest\r\n0\r\n\r\n"));
+		assertTrue(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void testCloseWhenChunkedNotAllowed() throws IOException{
+		OutputStream os = Files.newOutputStream(Paths.get("primjer4.txt"));
+		RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setKeepAlive(true);
+		rc.setVersion("HTTP/1.0");
+		rc.setBufferSize(8);
+		rc.write("Blabla").write("Test");
+		rc.finish();
+		os.close();
+		
+		String content = new String(Files.readAllBytes(Paths.get("primjer4.txt")));
+		
+		assertTrue(content.contains("Connection: close\r\n"));
+		assertTrue(content.endsWith("\r\n\r\nBlablaTest"));
+		assertFalse(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void testGzipCompression() throws IOException{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setKeepAlive(true);
+		rc.setMimeType("text/plain");
+		rc.setCompression("gzip", 4);
+		rc.write("Blabla").write("Test");
+		rc.finish();
+		
+		byte[] response = os.toByteArray();
+		String header = new String(response, StandardCharsets.ISO_8859_1);
+		int bodyStart = header.indexOf("\r\n\r\n") + 4;
+		
+		assertTrue(header.contains("Content-Encoding: gzip\r\n"));
+		assertTrue(header.contains("Content-Length: " + (response.length - bodyStart) + "\r\n"));
+		
+		GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(response, bodyStart, response.length - bodyStart));
+		assertEquals("BlablaTest", new String(gis.readAllBytes(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void testDelayWorkerOutlivesDeadline() throws Exception{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		HashMap<String, String> params = new HashMap<>();
+		params.put("ms", "100");
+		RequestContext rc = new RequestContext(os, params, new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		CompletableFuture<Void> stage = new DelayWorker().processRequestAsync(rc).toCompletableFuture();
+		// the deadline expires before the worker answers, and the connection's buffer is released
+		rc.abort();
+		try {
+			stage.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(0, os.size());
+		try {
+			rc.finish();
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+	
+	@Test
+	public void testETagDependsOnCoding() throws IOException{
+		String[] codings = {"gzip", null};
+		String[] tags = {"ETag: \"a-1-gzip\"\r\n", "ETag: \"a-1\"\r\n"};
+		for(int i = 0; i < codings.length; i++){
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+					new ArrayList<RequestContext.RCCookie>());
+			rc.setKeepAlive(true);
+			rc.setMimeType("text/plain");
+			rc.setCompression(codings[i], 4);
+			rc.setNegotiable(true);
+			rc.setETag("\"a-1\"");
+			rc.write("BlablaTest");
+			rc.finish();
+			
+			String header = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+			assertTrue(header.contains(tags[i]));
+			// the uncompressed response also depends on the Accept-Encoding header
+			assertTrue(header.contains("Vary: Accept-Encoding\r\n"));
+		}
+	}
+	
+	@Test
+	public void testWriter() throws IOException{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, new HashMap<String, String>(), new HashMap<String, String>(),
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setEncoding("ISO-8859-2");
+		rc.setMimeType("text/plain");
+		Writer writer = rc.getWriter();
+		writer.append("Čevapčići").append(' ').write("i Šiščevapčići.".toCharArray());
+		rc.write("!");
+		
+		String content = new String(os.toByteArray(), "ISO-8859-2");
+		
+		assertTrue(content.contains("charset=ISO-8859-2\r\n"));
+		assertTrue(content.endsWith("\r\n\r\nČevapčići i Šiščevapčići.!"));
+	}
+	
+	@Test
+	public void testPersistentParametersShared() throws IOException{
+		HashMap<String, String> session = new HashMap<>();
+		RequestContext rc = new RequestContext(new ByteArrayOutputStream(), new HashMap<String, String>(), session,
+				new ArrayList<RequestContext.RCCookie>());
+		rc.setPersistentParameter("brojPoziva", "1");
+		assertEquals("1", session.get("brojPoziva"));
+		rc.removePersistentParameter("brojPoziva");
+		assertTrue(session.isEmpty());
+	}
+	
 	@Test
 	public void testRCCookie2(){
 		RCCookie cookie = new RCCookie("korisnik", "perica", "127.0.0.1", "/", 3600);
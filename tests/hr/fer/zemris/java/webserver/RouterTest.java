@@ -0,0 +1,54 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RouterTest {
+
+	private static Router<String> router(){
+		Router<String> router = new Router<>();
+		router.add("/hello", "hello");
+		router.add("/help", "help");
+		router.add("/users/{id}", "user");
+		router.add("/users/{id}/posts/{post}", "post");
+		router.add("/users/me", "me");
+		router.add("/static/*path", "static");
+		return router;
+	}
+
+	@Test
+	public void testStaticRoutes(){
+		Router<String> router = router();
+		assertEquals("hello", router.match("/hello").getValue());
+		assertEquals("help", router.match("/help").getValue());
+		assertTrue(router.match("/help").getVariables().isEmpty());
+		assertNull(router.match("/hel"));
+		assertNull(router.match("/hello/"));
+	}
+
+	@Test
+	public void testPathVariables(){
+		Router<String> router = router();
+		Router.Match<String> match = router.match("/users/42/posts/7");
+		assertEquals("post", match.getValue());
+		assertEquals("42", match.getVariables().get("id"));
+		assertEquals("7", match.getVariables().get("post"));
+		assertEquals("user", router.match("/users/mel").getValue());
+		assertEquals("me", router.match("/users/me").getValue());
+		assertNull(router.match("/users/"));
+	}
+
+	@Test
+	public void testWildcard(){
+		Router.Match<String> match = router().match("/static/css/main.css");
+		assertEquals("static", match.getValue());
+		assertEquals("css/main.css", match.getVariables().get("path"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicateRoute(){
+		router().add("/users/{name}", "other");
+	}
+}
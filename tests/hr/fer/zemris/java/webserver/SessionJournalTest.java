@@ -0,0 +1,76 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SessionJournalTest {
+
+	@Test
+	public void testSessionsSurviveRestart() throws IOException{
+		Path directory = Files.createTempDirectory("journal");
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		SessionJournal journal = new SessionJournal(directory, store);
+		assertEquals(0, journal.open());
+		Map<String, String> first = store.create("AAAA");
+		first.put("brojPoziva", "1");
+		first.put("brojPoziva", "2");
+		first.put("ime", "Čevapčić");
+		first.remove("ime");
+		store.create("BBBB").put("x", "y");
+		journal.close();
+
+		ISessionStore restarted = new ConcurrentSessionStore(60 * 1000);
+		SessionJournal reopened = new SessionJournal(directory, restarted);
+		assertEquals(7, reopened.open());
+		assertEquals(2, restarted.size());
+		assertEquals("2", restarted.touch("AAAA").get("brojPoziva"));
+		assertNull(restarted.touch("AAAA").get("ime"));
+		assertEquals("y", restarted.touch("BBBB").get("x"));
+		// the log was compacted into the snapshot when the journal was opened
+		assertEquals(0, reopened.getLogSize());
+		reopened.close();
+	}
+
+	@Test
+	public void testIncompleteRecordIgnored() throws IOException{
+		Path directory = Files.createTempDirectory("journal");
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		SessionJournal journal = new SessionJournal(directory, store);
+		journal.open();
+		store.create("AAAA").put("a", "b");
+		journal.close();
+		Files.write(directory.resolve("sessions.log"), new byte[] {3, 0, 0}, StandardOpenOption.APPEND);
+
+		ISessionStore restarted = new ConcurrentSessionStore(60 * 1000);
+		new SessionJournal(directory, restarted).open();
+		assertEquals("b", restarted.touch("AAAA").get("a"));
+	}
+
+	@Test
+	public void testCompaction() throws IOException{
+		Path directory = Files.createTempDirectory("journal");
+		ISessionStore store = new ConcurrentSessionStore(60 * 1000);
+		SessionJournal journal = new SessionJournal(directory, store);
+		journal.open();
+		Map<String, String> map = store.create("AAAA");
+		for(int i = 0; i < 100000; i++){
+			map.put("counter", Integer.toString(i));
+		}
+		journal.flush();
+		assertTrue(journal.getLogSize() < 1000);
+		assertTrue(Files.size(directory.resolve("sessions.snapshot")) < 1000);
+		journal.close();
+
+		ISessionStore restarted = new ConcurrentSessionStore(60 * 1000);
+		new SessionJournal(directory, restarted).open();
+		assertEquals("99999", restarted.touch("AAAA").get("counter"));
+	}
+}
@@ -0,0 +1,167 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SessionReplicatorTest {
+
+	private static final String SECRET = "tajna";
+
+	private static SessionReplicator receiver(ISessionStore store, int port) throws IOException{
+		SessionReplicator replicator = new SessionReplicator(
+			store, new InetSocketAddress("127.0.0.1", port), Collections.emptyList(), SECRET
+		);
+		replicator.start();
+		return replicator;
+	}
+
+	private static SessionReplicator reopen(ISessionStore store, int port) throws IOException, InterruptedException{
+		// a sender which keeps reconnecting may hold the port for a moment, e.g. by connecting to itself
+		long deadline = System.currentTimeMillis() + 10 * 1000;
+		while(true){
+			try {
+				return receiver(store, port);
+			} catch (BindException e) {
+				if(System.currentTimeMillis() > deadline) throw e;
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private static void await(Supplier<Object> actual, Object expected) throws InterruptedException{
+		for(int i = 0; i < 500 && !expected.equals(actual.get()); i++){
+			Thread.sleep(10);
+		}
+		assertEquals(expected, actual.get());
+	}
+
+	private static String parameter(ISessionStore store, String sid, String name){
+		Map<String, String> map = store.touch(sid);
+		return map == null ? "" : String.valueOf(map.get(name));
+	}
+
+	@Test
+	public void testChangesReachPeer() throws IOException, InterruptedException{
+		ISessionStore second = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator receiving = receiver(second, 0);
+
+		ISessionStore first = new OffHeapSessionStore(60 * 1000);
+		first.create("AAAA").put("a", "1");
+		SessionReplicator sending = new SessionReplicator(
+			first, null, Collections.singletonList(receiving.getLocalAddress()), SECRET
+		);
+		sending.start();
+		// sessions created before connecting are sent when connecting
+		await(() -> parameter(second, "AAAA", "a"), "1");
+
+		Map<String, String> map = first.create("BBBB");
+		map.put("brojPoziva", "1");
+		map.put("brojPoziva", "2");
+		first.touch("AAAA").remove("a");
+		await(() -> parameter(second, "BBBB", "brojPoziva"), "2");
+		await(() -> parameter(second, "AAAA", "a"), "null");
+
+		first.getUpdater().sessionRemoved("BBBB");
+		first.create("CCCC");
+		first.touch("CCCC").put("x", "y");
+		// changes applied by the updater are not replicated
+		await(() -> parameter(second, "CCCC", "x"), "y");
+		assertNotNull(second.touch("BBBB"));
+
+		sending.close();
+		receiving.close();
+	}
+
+	@Test
+	public void testPeerResyncedAfterRestart() throws IOException, InterruptedException{
+		ISessionStore second = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator receiving = receiver(second, 0);
+		int port = receiving.getLocalAddress().getPort();
+
+		ISessionStore first = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator sending = new SessionReplicator(
+			first, null, Collections.singletonList(receiving.getLocalAddress()), SECRET
+		);
+		sending.start();
+		first.create("AAAA").put("a", "1");
+		await(() -> parameter(second, "AAAA", "a"), "1");
+
+		receiving.close();
+		first.touch("AAAA").put("a", "2");
+		ISessionStore restarted = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator reopened = reopen(restarted, port);
+		await(() -> parameter(restarted, "AAAA", "a"), "2");
+
+		sending.close();
+		reopened.close();
+	}
+
+	@Test
+	public void testRemovalsReachPeerAfterReconnect() throws IOException, InterruptedException{
+		resyncRemovals(new ConcurrentSessionStore(60 * 1000));
+		resyncRemovals(new OffHeapSessionStore(60 * 1000));
+	}
+
+	private static void resyncRemovals(ISessionStore second) throws IOException, InterruptedException{
+		SessionReplicator receiving = receiver(second, 0);
+		int port = receiving.getLocalAddress().getPort();
+
+		ISessionStore first = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator sending = new SessionReplicator(
+			first, null, Collections.singletonList(receiving.getLocalAddress()), SECRET
+		);
+		sending.start();
+		Map<String, String> map = first.create("AAAA");
+		map.put("login", "true");
+		map.put("a", "1");
+		map.put("b", "1");
+		await(() -> parameter(second, "AAAA", "b"), "1");
+
+		// the peer keeps its sessions while it is not connected
+		receiving.close();
+		map.remove("login");
+		map.put("a", "2");
+		SessionReplicator reopened = reopen(second, port);
+		await(() -> parameter(second, "AAAA", "a"), "2");
+		assertEquals("null", parameter(second, "AAAA", "login"));
+		assertEquals("1", parameter(second, "AAAA", "b"));
+
+		sending.close();
+		reopened.close();
+	}
+
+	@Test
+	public void testPeerWithWrongSecretRejected() throws IOException, InterruptedException{
+		ISessionStore second = new ConcurrentSessionStore(60 * 1000);
+		SessionReplicator receiving = receiver(second, 0);
+
+		ISessionStore first = new ConcurrentSessionStore(60 * 1000);
+		first.create("AAAA").put("a", "1");
+		SessionReplicator sending = new SessionReplicator(
+			first, null, Collections.singletonList(receiving.getLocalAddress()), "kriva"
+		);
+		sending.start();
+		first.create("BBBB").put("b", "2");
+		Thread.sleep(300);
+		assertNull(second.touch("AAAA"));
+		assertNull(second.touch("BBBB"));
+		assertEquals(0, second.size());
+
+		sending.close();
+		receiving.close();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSecretRequired(){
+		new SessionReplicator(new ConcurrentSessionStore(60 * 1000), null, Collections.emptyList(), "");
+	}
+}
@@ -0,0 +1,53 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TextEncoderTest {
+
+	private static byte[] encode(String text, Charset charset) throws IOException{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		TextEncoder.get(charset).encode(text, 0, text.length(), os);
+		return os.toByteArray();
+	}
+
+	@Test
+	public void testShortText() throws IOException{
+		String text = "Čevapčići i Šiščevapčići.";
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text, StandardCharsets.UTF_8));
+		assertArrayEquals(text.getBytes(Charset.forName("ISO-8859-2")), encode(text, Charset.forName("ISO-8859-2")));
+		assertEquals(0, encode("", StandardCharsets.UTF_8).length);
+	}
+
+	@Test
+	public void testLongTextWithSurrogates() throws IOException{
+		StringBuilder sb = new StringBuilder();
+		// surrogate pairs end up split between slices
+		for(int i = 0; i < 3000; i++){
+			sb.append(i % 7 == 0 ? "😀" : "ž");
+		}
+		String text = sb.toString();
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testUnmappableReplaced() throws IOException{
+		String text = "Čevap 中";
+		assertArrayEquals(text.getBytes(StandardCharsets.ISO_8859_1), encode(text, StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testCharArray() throws IOException{
+		char[] text = "xxČevapčićixx".toCharArray();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		TextEncoder.get(StandardCharsets.UTF_8).encode(text, 2, text.length - 4, os);
+		assertEquals("Čevapčići", new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
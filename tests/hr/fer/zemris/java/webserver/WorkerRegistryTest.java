@@ -0,0 +1,33 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.workers.EchoParams;
+
+@SuppressWarnings("javadoc")
+public class WorkerRegistryTest {
+
+	private static WorkerRegistry registry(){
+		return new WorkerRegistry("hr.fer.zemris.java.webserver.workers", WorkerRegistryTest.class.getClassLoader());
+	}
+
+	@Test
+	public void testWorkerIsInstantiatedOnce(){
+		WorkerRegistry registry = registry();
+		IWebWorker worker = registry.get("EchoParams");
+		assertTrue(worker instanceof EchoParams);
+		assertSame(worker, registry.get("EchoParams"));
+	}
+
+	@Test
+	public void testUnknownWorkers(){
+		WorkerRegistry registry = registry();
+		assertNull(registry.get("Missing"));
+		assertNull(registry.get("Missing"));
+		assertNull(registry.get(""));
+		assertNull(registry.get("..Demo"));
+		assertNull(registry.get("hr.fer.zemris.java.webserver.Demo"));
+	}
+}